@@ -0,0 +1,53 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of the same size. Direct buffers are expensive to allocate, but channels
+ * read and write them without the extra copy the JDK makes for heap buffers.
+ */
+public class ByteBufferPool {
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final int maxIdle;
+    private final int bufferSize;
+
+    /**
+     * @param maxIdle    number of released buffers kept for reuse, the rest is left to the garbage collector
+     * @param bufferSize capacity of every buffer
+     */
+    public ByteBufferPool(final int maxIdle, final int bufferSize) {
+        this.maxIdle = maxIdle;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer, allocating a new one when the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idle.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public void release(final ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+        if (idle.incrementAndGet() <= maxIdle) {
+            free.add(buffer);
+        } else {
+            idle.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,231 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
+
+/**
+ * Load generator for Hello servers. Every thread is a stream of requests: in closed-loop mode
+ * it sends the next request as soon as the previous one is answered, in open-loop mode requests
+ * are sent at a fixed total rate and latency is measured from the time a request was due,
+ * so a stalled server is not hidden by a stalled client.
+ */
+public class HelloUDPBenchmark implements HelloClient {
+
+    private static final String USAGE = "Usage: HelloUDPBenchmark [--rate requests/s] [--warmup seconds] "
+            + "[--duration seconds] [--local-server threads] host port prefix threads requests";
+
+    private final long rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final RttEstimator estimator = new RttEstimator();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final Runnable countMismatch = mismatches::increment;
+    private volatile long measuredNanos;
+
+    /**
+     * @param rate            total requests per second, {@code 0} for closed loop
+     * @param warmupSeconds   time at the beginning that is not measured
+     * @param durationSeconds measured time, {@code 0} to send the given number of requests instead
+     */
+    public HelloUDPBenchmark(final long rate, final int warmupSeconds, final int durationSeconds) {
+        if (rate < 0 || warmupSeconds < 0 || durationSeconds < 0) {
+            throw new IllegalArgumentException("Rate, warmup and duration must be >= 0");
+        }
+        this.rate = rate;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+    }
+
+    @Override
+    public void run(final String host, final int port, final String prefix, final int threadsCount, final int requests) {
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        final long start = System.nanoTime();
+        final long measureFrom = start + warmupNanos;
+        final long stopAt = durationNanos > 0 ? measureFrom + durationNanos : Long.MAX_VALUE;
+        final ExecutorService threads = Executors.newFixedThreadPool(threadsCount);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            final int threadNumber = i;
+            futures.add(threads.submit(() -> stream(address, prefixBytes, threadNumber, threadsCount,
+                    durationNanos > 0 ? Integer.MAX_VALUE : requests, start, measureFrom, stopAt)));
+        }
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final ExecutionException e) {
+            log("Benchmark thread failed", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        measuredNanos = Math.max(0, Math.min(stopAt, System.nanoTime()) - measureFrom);
+        closeAndAwaitTerm(threads);
+    }
+
+    private void stream(final InetSocketAddress address, final byte[] prefix, final int threadNumber, final int threadsCount,
+                        final int requests, final long start, final long measureFrom, final long stopAt) {
+        // every thread sends its share of the total rate, shifted so threads do not fire together
+        final long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(threadsCount) / rate : 0;
+        final long first = start + interval * threadNumber / threadsCount;
+        final ByteBuffer request = BUFFERS.acquire();
+        final ByteBuffer response = BUFFERS.acquire();
+        try (final DatagramChannel channel = DatagramChannel.open(); final Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_READ);
+            for (int i = 0; i < requests && !Thread.interrupted(); i++) {
+                final long due;
+                if (rate > 0) {
+                    due = first + interval * i;
+                    for (long now; (now = System.nanoTime()) < due; ) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                } else {
+                    due = System.nanoTime();
+                }
+                if (due >= stopAt) {
+                    return;
+                }
+                putRequest(request, prefix, threadNumber, i);
+                final boolean measured = due >= measureFrom;
+                for (int attempt = 0; System.nanoTime() < stopAt; attempt++) {
+                    if (attempt > 0) {
+                        estimator.retransmitted();
+                        if (measured) {
+                            retransmits.increment();
+                        }
+                    }
+                    final long sentAt = System.nanoTime();
+                    try {
+                        channel.write(request.rewind());
+                    } catch (final IOException e) {
+                        if (!channel.isOpen()) {
+                            throw e;
+                        }
+                        // an ICMP error of an earlier send ends neither the attempt nor the stream
+                        log("Troubles with sending", e);
+                    }
+                    if (measured) {
+                        sent.increment();
+                    }
+                    // late answers to earlier sends are counted and skipped, so they do not trigger retransmits
+                    if (awaitResponse(channel, selector, response, threadNumber, i,
+                            sentAt + TimeUnit.MILLISECONDS.toNanos(estimator.timeout(attempt)),
+                            measured ? countMismatch : null)) {
+                        final long now = System.nanoTime();
+                        if (attempt == 0) {
+                            estimator.sample(now - sentAt);
+                        }
+                        if (measured) {
+                            answered.increment();
+                            latencies.record(TimeUnit.NANOSECONDS.toMicros(now - due));
+                        }
+                        break;
+                    }
+                    if (measured) {
+                        timeouts.increment();
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            log("Troubles with benchmark channel", e);
+        } finally {
+            BUFFERS.release(request);
+            BUFFERS.release(response);
+        }
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public void report(final PrintStream out) {
+        final double seconds = measuredNanos / 1e9;
+        out.printf("answered %d in %.1f s, %.0f requests/s%n", answered.sum(), seconds,
+                seconds > 0 ? answered.sum() / seconds : 0.0);
+        out.printf("latency us: p50 %d, p90 %d, p99 %d, p999 %d, max %d%n",
+                latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(90),
+                latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9), latencies.getMax());
+        out.printf("datagrams sent %d, retransmits %d, timeouts %d, mismatched responses %d%n",
+                sent.sum(), retransmits.sum(), timeouts.sum(), mismatches.sum());
+        out.println("rtt: " + estimator);
+    }
+
+    public static void main(final String[] args) {
+        if (args == null || areNullArgs(args)) {
+            System.out.println(USAGE);
+            return;
+        }
+        long rate = 0;
+        int warmup = 0;
+        int duration = 0;
+        int serverThreads = 0;
+        int pos = 0;
+        try {
+            for (; pos + 1 < args.length && args[pos].startsWith("--"); pos += 2) {
+                switch (args[pos]) {
+                    case "--rate":
+                        rate = Long.parseLong(args[pos + 1]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[pos + 1]);
+                        break;
+                    case "--duration":
+                        duration = Integer.parseInt(args[pos + 1]);
+                        break;
+                    case "--local-server":
+                        serverThreads = Integer.parseInt(args[pos + 1]);
+                        break;
+                    default:
+                        System.out.println(USAGE);
+                        return;
+                }
+            }
+        } catch (final NumberFormatException e) {
+            System.out.println("Bad numbers in arguments: " + e.getMessage());
+            return;
+        }
+        final String[] clientArgs = Arrays.copyOfRange(args, pos, args.length);
+        final HelloUDPBenchmark benchmark = new HelloUDPBenchmark(rate, warmup, duration);
+        if (serverThreads > 0 && clientArgs.length > 1) {
+            try (final HelloServer server = new HelloUDPServer()) {
+                server.start(Integer.parseInt(clientArgs[1]), serverThreads);
+                runClientMain(clientArgs, () -> benchmark);
+            } catch (final NumberFormatException e) {
+                System.out.println("Bad numbers in arguments: " + e.getMessage());
+                return;
+            }
+        } else {
+            runClientMain(clientArgs, () -> benchmark);
+        }
+        benchmark.report(System.out);
+    }
+}
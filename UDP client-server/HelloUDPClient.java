@@ -4,77 +4,325 @@ import info.kgeorgiy.java.advanced.hello.HelloClient;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
 
 public class HelloUDPClient implements HelloClient {
 
+    private final Map<SocketAddress, RttEstimator> estimators = new ConcurrentHashMap<>();
+    private final int maxRetries;
+    private final int sockets;
+
+    public HelloUDPClient() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRetries number of retransmissions of a request before it is given up
+     */
+    public HelloUDPClient(final int maxRetries) {
+        this(maxRetries, 0);
+    }
+
+    /**
+     * @param maxRetries number of retransmissions of a request before it is given up
+     * @param sockets    size of the socket pool shared by all threads, {@code 0} for a socket per thread;
+     *                   the pool saves ports, every thread still sends and waits on its own
+     */
+    public HelloUDPClient(final int maxRetries, final int sockets) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Count of retries must be >= 0");
+        }
+        if (sockets < 0) {
+            throw new IllegalArgumentException("Count of sockets must be >= 0");
+        }
+        this.maxRetries = maxRetries;
+        this.sockets = sockets;
+    }
+
+    /**
+     * Channels shared by the threads. One receiver reads responses from all of them and hands them
+     * to the waiting thread by the thread number parsed from the payload.
+     */
+    private static class SocketPool implements AutoCloseable {
+        private final List<DatagramChannel> channels = new ArrayList<>();
+        private final Selector selector;
+        // the request every thread waits for and the last answered one, -1 before the first one
+        private final AtomicIntegerArray pending;
+        private final AtomicIntegerArray answered;
+        private final AtomicReferenceArray<Thread> waiters;
+        private final Thread receiver;
+
+        SocketPool(final SocketAddress address, final int sockets, final int threadsCount) throws IOException {
+            selector = Selector.open();
+            try {
+                for (int i = 0; i < sockets; i++) {
+                    final DatagramChannel channel = DatagramChannel.open();
+                    channels.add(channel);
+                    channel.configureBlocking(false);
+                    channel.connect(address);
+                    channel.register(selector, SelectionKey.OP_READ);
+                }
+            } catch (final IOException e) {
+                close();
+                throw e;
+            }
+            pending = new AtomicIntegerArray(threadsCount);
+            answered = new AtomicIntegerArray(threadsCount);
+            for (int i = 0; i < threadsCount; i++) {
+                pending.set(i, -1);
+                answered.set(i, -1);
+            }
+            waiters = new AtomicReferenceArray<>(threadsCount);
+            receiver = new Thread(this::receive, "HelloUDPClient receiver");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        DatagramChannel channel(final int threadNumber) {
+            return channels.get(threadNumber % channels.size());
+        }
+
+        private void receive() {
+            final ByteBuffer buffer = BUFFERS.acquire();
+            try {
+                while (!Thread.interrupted() && selector.isOpen()) {
+                    try {
+                        selector.select();
+                    } catch (final IOException e) {
+                        log("Troubles with selecting", e);
+                        continue;
+                    }
+                    for (final SelectionKey key : selector.selectedKeys()) {
+                        final DatagramChannel channel = (DatagramChannel) key.channel();
+                        try {
+                            while (channel.receive(buffer.clear()) != null) {
+                                route(buffer.flip());
+                            }
+                        } catch (final IOException e) {
+                            // a connected channel reports ICMP errors, e.g. before the server is up, and stays usable
+                            if (channel.isOpen()) {
+                                log("Troubles with receiving", e);
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (final ClosedSelectorException e) {
+                // the pool is closed
+            } finally {
+                BUFFERS.release(buffer);
+            }
+        }
+
+        private void route(final ByteBuffer response) {
+            final long ids = parseIds(response);
+            if (ids < 0 || (ids >>> 32) >= answered.length()) {
+                return;
+            }
+            final int threadNumber = (int) (ids >>> 32);
+            final int requestNumber = (int) ids;
+            // late answers to earlier requests and malformed responses do not answer the pending one
+            if (pending.get(threadNumber) == requestNumber && verify(response, threadNumber, requestNumber)) {
+                answered.set(threadNumber, requestNumber);
+                LockSupport.unpark(waiters.get(threadNumber));
+            }
+        }
+
+        /**
+         * Makes the request the only one of the thread whose response is accepted, called before it is sent.
+         */
+        void expect(final int threadNumber, final int requestNumber) {
+            pending.set(threadNumber, requestNumber);
+        }
+
+        /**
+         * @return whether the request was answered before the deadline
+         */
+        boolean await(final int threadNumber, final int requestNumber, final long deadline) {
+            waiters.set(threadNumber, Thread.currentThread());
+            for (long now; answered.get(threadNumber) != requestNumber; ) {
+                if ((now = System.nanoTime()) >= deadline || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(deadline - now);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                selector.close();
+            } catch (final IOException e) {
+                log("Troubles with closing", e);
+            }
+            for (final DatagramChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (final IOException e) {
+                    log("Troubles with closing", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Round trip time estimations and computed timeouts of every destination.
+     */
+    public Map<SocketAddress, RttEstimator> getRttEstimators() {
+        return Collections.unmodifiableMap(estimators);
+    }
+
     @Override
     public void run(final String host, final int port, final String prefix, final int threadsCount, final int requests) {
+        if (sockets > 0) {
+            runMultiplexed(host, port, prefix, threadsCount, requests);
+            return;
+        }
         final ExecutorService threads = Executors.newFixedThreadPool(threadsCount);
         final List<Future<?>> arr = new ArrayList<>();
         for (int i = 0; i < threadsCount; i++) {
             final int num = i;
             arr.add(threads.submit(() -> sendAndReceive(host, port, prefix, num, requests)));
         }
+        awaitAll(arr);
+        threads.shutdown();
+    }
+
+    private static void awaitAll(final List<Future<?>> futures) {
         try {
-            for (final Future<?> future : arr) {
+            for (final Future<?> future : futures) {
                 future.get();
             }
         } catch (final ExecutionException | InterruptedException ignored) {
             // pass
         }
-        threads.shutdown();
     }
 
-    private SocketAddress createSocketAddress(final String host, final int port) throws UnknownHostException {
-        return new InetSocketAddress(InetAddress.getByName(host), port);
+    private void runMultiplexed(final String host, final int port, final String prefix,
+                                final int threadsCount, final int requests) {
+        final SocketAddress socketAddress;
+        try {
+            socketAddress = createSocketAddress(host, port);
+        } catch (final UnknownHostException e) {
+            return;
+        }
+        final RttEstimator estimator = estimators.computeIfAbsent(socketAddress, address -> new RttEstimator());
+        final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        try (final SocketPool pool = new SocketPool(socketAddress, Math.min(sockets, threadsCount), threadsCount)) {
+            final ExecutorService threads = Executors.newFixedThreadPool(threadsCount);
+            final List<Future<?>> arr = new ArrayList<>();
+            for (int i = 0; i < threadsCount; i++) {
+                final int num = i;
+                arr.add(threads.submit(() -> sendMultiplexed(pool, estimator, prefixBytes, num, requests)));
+            }
+            awaitAll(arr);
+            threads.shutdown();
+        } catch (final IOException e) {
+            log("Troubles with opening channels", e);
+        }
+    }
+
+    private void sendMultiplexed(final SocketPool pool, final RttEstimator estimator, final byte[] prefix,
+                                 final int threadNumber, final int requests) {
+        final DatagramChannel channel = pool.channel(threadNumber);
+        final ByteBuffer request = BUFFERS.acquire();
+        try {
+            for (int i = 0; i < requests; i++) {
+                putRequest(request, prefix, threadNumber, i);
+                pool.expect(threadNumber, i);
+                for (int attempt = 0; attempt <= maxRetries && !Thread.interrupted() && channel.isOpen(); attempt++) {
+                    if (attempt > 0) {
+                        estimator.retransmitted();
+                    }
+                    final long sent = System.nanoTime();
+                    try {
+                        channel.write(request.rewind());
+                    } catch (final IOException e) {
+                        log("Troubles with sending", e);
+                    }
+                    if (pool.await(threadNumber, i, sent + TimeUnit.MILLISECONDS.toNanos(estimator.timeout(attempt)))) {
+                        if (attempt == 0) {
+                            estimator.sample(System.nanoTime() - sent);
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            BUFFERS.release(request);
+        }
     }
 
-    private byte[] createData(final String prefix, final int threadNumber, final int requestNumber) {
-        final String query = prefix + threadNumber + "_" + requestNumber;
-        return query.getBytes();
+    private SocketAddress createSocketAddress(final String host, final int port) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByName(host), port);
     }
 
     private void sendAndReceive(final String host, final int port, final String prefix,
                                 final int threadNumber, final int requests) {
-        try(final DatagramSocket socket = new DatagramSocket()) {
-            socket.setSoTimeout(HelloUDPUtils.TIMEOUT);
-            final SocketAddress socketAddress;
-            try {
-                socketAddress = createSocketAddress(host, port);
-            } catch (final UnknownHostException e) {
-                return;
-            }
-
-            final int bufferSize = socket.getReceiveBufferSize();
-            final byte[] buffer = new byte[bufferSize];
-
-            final DatagramPacket requestPacket = new DatagramPacket(new byte[0], 0, socketAddress);
-            final DatagramPacket receivePacket = new DatagramPacket(buffer, bufferSize);
+        final SocketAddress socketAddress;
+        try {
+            socketAddress = createSocketAddress(host, port);
+        } catch (final UnknownHostException e) {
+            return;
+        }
+        final RttEstimator estimator = estimators.computeIfAbsent(socketAddress, address -> new RttEstimator());
+        final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer request = BUFFERS.acquire();
+        final ByteBuffer response = BUFFERS.acquire();
+        try (final DatagramChannel channel = DatagramChannel.open(); final Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.connect(socketAddress);
+            channel.register(selector, SelectionKey.OP_READ);
 
             for (int i = 0; i < requests; i++) {
-                requestPacket.setData(createData(prefix, threadNumber, i));
-                receivePacket.setData(buffer);
+                putRequest(request, prefixBytes, threadNumber, i);
 
-                while (!Thread.interrupted() && !socket.isClosed()) {
+                for (int attempt = 0; attempt <= maxRetries && !Thread.interrupted() && channel.isOpen(); attempt++) {
+                    if (attempt > 0) {
+                        estimator.retransmitted();
+                    }
+                    final long sent = System.nanoTime();
                     try {
-                        socket.send(requestPacket);
-                        socket.receive(receivePacket);
-                        if (verify(getDatagramPacketDataAsString(receivePacket), threadNumber, i)) {
-                            break;
-                        }
+                        channel.write(request.rewind());
                     } catch (final IOException e) {
+                        // an ICMP error of an earlier send, the attempt still waits out its deadline
+                        log("Troubles with sending", e);
+                    }
+                    if (awaitResponse(channel, selector, response, threadNumber, i,
+                            sent + TimeUnit.MILLISECONDS.toNanos(estimator.timeout(attempt)), null)) {
+                        if (attempt == 0) {
+                            estimator.sample(System.nanoTime() - sent);
+                        }
+                        break;
                     }
                 }
             }
-        } catch (final SocketException e) {
+        } catch (final IOException e) {
+            log("Troubles with opening channel", e);
+        } finally {
+            BUFFERS.release(request);
+            BUFFERS.release(response);
         }
     }
 
@@ -0,0 +1,177 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
+
+/**
+ * Single threaded client: one {@link Selector} drives a channel per logical thread,
+ * every channel keeps up to {@code window} requests in flight and retransmits each
+ * of them on its own timer.
+ */
+public class HelloUDPNonblockingClient implements HelloClient {
+
+    private final int window;
+
+    public HelloUDPNonblockingClient() {
+        this(1);
+    }
+
+    public HelloUDPNonblockingClient(final int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be > 0");
+        }
+        this.window = window;
+    }
+
+    private class Stream {
+        private final int threadNumber;
+        private final byte[] prefix;
+        private final DatagramChannel channel;
+        // System.nanoTime() of the next retransmission, meaningful for sent and unanswered requests only
+        private final long[] deadlines;
+        private final boolean[] answered;
+        private int base;
+        private int next;
+
+        Stream(final int threadNumber, final byte[] prefix, final DatagramChannel channel, final int requests) {
+            this.threadNumber = threadNumber;
+            this.prefix = prefix;
+            this.channel = channel;
+            deadlines = new long[requests];
+            answered = new boolean[requests];
+        }
+
+        boolean isDone() {
+            return base == answered.length;
+        }
+
+        void send(final ByteBuffer buffer, final int requestNumber, final long now) {
+            try {
+                channel.write(putRequest(buffer, prefix, threadNumber, requestNumber));
+            } catch (final IOException e) {
+                log("Troubles with sending", e);
+            }
+            deadlines[requestNumber] = now + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        }
+
+        // sends new requests while the window has room and resends the expired ones
+        void update(final ByteBuffer buffer, final long now) {
+            for (int i = base; i < next; i++) {
+                if (!answered[i] && deadlines[i] - now <= 0) {
+                    send(buffer, i, now);
+                }
+            }
+            while (next < answered.length && next - base < window) {
+                send(buffer, next++, now);
+            }
+        }
+
+        /**
+         * @return nanoseconds until the nearest retransmission, {@code Long.MAX_VALUE} if nothing is in flight
+         */
+        long untilNearestDeadline(final long now) {
+            long nearest = Long.MAX_VALUE;
+            for (int i = base; i < next; i++) {
+                if (!answered[i]) {
+                    nearest = Math.min(nearest, deadlines[i] - now);
+                }
+            }
+            return nearest;
+        }
+
+        void receive(final ByteBuffer buffer) {
+            buffer.clear();
+            try {
+                channel.read(buffer);
+            } catch (final IOException e) {
+                log("Troubles with receiving", e);
+                return;
+            }
+            buffer.flip();
+            for (int i = base; i < next; i++) {
+                if (!answered[i] && verify(buffer, threadNumber, i)) {
+                    answered[i] = true;
+                    break;
+                }
+            }
+            while (base < next && answered[base]) {
+                base++;
+            }
+        }
+    }
+
+    @Override
+    public void run(final String host, final int port, final String prefix, final int threadsCount, final int requests) {
+        final List<Stream> streams = new ArrayList<>();
+        // the loop is single threaded, so one buffer serves all sends and receives
+        final ByteBuffer buffer = BUFFERS.acquire();
+        try (final Selector selector = Selector.open()) {
+            final InetSocketAddress address = new InetSocketAddress(host, port);
+            final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < threadsCount; i++) {
+                final DatagramChannel channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                final Stream stream = new Stream(i, prefixBytes, channel, requests);
+                streams.add(stream);
+                channel.register(selector, SelectionKey.OP_READ, stream);
+            }
+            loop(selector, streams, buffer);
+        } catch (final IOException e) {
+            log("Troubles with opening channels", e);
+        } finally {
+            BUFFERS.release(buffer);
+            for (final Stream stream : streams) {
+                try {
+                    stream.channel.close();
+                } catch (final IOException e) {
+                    log("Troubles with closing", e);
+                }
+            }
+        }
+    }
+
+    private void loop(final Selector selector, final List<Stream> streams, final ByteBuffer buffer) throws IOException {
+        while (!Thread.interrupted()) {
+            // monotonic, so wall clock adjustments neither stall nor flood the windows
+            final long now = System.nanoTime();
+            long nearest = Long.MAX_VALUE;
+            boolean done = true;
+            for (final Stream stream : streams) {
+                if (!stream.isDone()) {
+                    stream.update(buffer, now);
+                    nearest = Math.min(nearest, stream.untilNearestDeadline(now));
+                    done &= stream.isDone();
+                }
+            }
+            if (done) {
+                return;
+            }
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nearest)));
+            for (final Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                final SelectionKey key = it.next();
+                it.remove();
+                if (key.isValid() && key.isReadable()) {
+                    ((Stream) key.attachment()).receive(buffer);
+                }
+            }
+        }
+    }
+
+    public static void main(final String[] args) {
+        runClientMain(args, HelloUDPNonblockingClient::new);
+    }
+}
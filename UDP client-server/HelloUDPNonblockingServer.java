@@ -0,0 +1,205 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
+
+public class HelloUDPNonblockingServer implements HelloServer {
+
+    private Selector selector;
+    private DatagramChannel channel;
+    private ExecutorService workers;
+    private ExecutorService io;
+    // touched only by the I/O thread, limits requests in processing to the number of buffers
+    private final Queue<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final Deque<Response> responses = new ArrayDeque<>();
+    private final HelloUDPServerMetrics metrics = new HelloUDPServerMetrics();
+    private final LatencyHistogram processing = metrics.newWorkerHistogram();
+    private volatile boolean closing;
+
+    private static class Response {
+        private final ByteBuffer buffer;
+        private final SocketAddress address;
+        private final long received;
+
+        Response(final ByteBuffer buffer, final SocketAddress address, final long received) {
+            this.buffer = buffer;
+            this.address = address;
+            this.received = received;
+        }
+    }
+
+    public HelloUDPServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void start(final int port, final int threadsCount) {
+        try {
+            selector = Selector.open();
+        } catch (final IOException e) {
+            closeSelectorAfterException(selector, e);
+            return;
+        }
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            channel.register(selector, SelectionKey.OP_READ);
+            for (int i = 0; i < threadsCount; i++) {
+                freeBuffers.add(putHelloPrefix(BUFFERS.acquire()));
+            }
+        } catch (final IOException e) {
+            closeChannelAfterException(channel, e);
+            closeSelectorAfterException(selector, e);
+            return;
+        }
+        metrics.setQueueDepth(() -> {
+            synchronized (responses) {
+                return responses.size();
+            }
+        });
+        metrics.register("HelloUDPNonblockingServer", port);
+        workers = Executors.newFixedThreadPool(threadsCount);
+        io = Executors.newSingleThreadExecutor();
+        io.submit(this::run);
+    }
+
+    private void run() {
+        try {
+            while (!Thread.interrupted() && selector.isOpen()) {
+                if (closing) {
+                    // stop accepting, but keep sending until every received request is answered
+                    channel.keyFor(selector).interestOpsAnd(~SelectionKey.OP_READ);
+                    if (workers.isTerminated() && syncIsEmpty()) {
+                        return;
+                    }
+                    selector.select(1);
+                } else {
+                    selector.select();
+                }
+                for (final Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isWritable()) {
+                        send(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        receive(key);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            log("Troubles with selecting", e);
+        } catch (final ClosedSelectorException ignored) {
+            // server is closed
+        }
+    }
+
+    private void receive(final SelectionKey key) {
+        final ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+            return;
+        }
+        final SocketAddress address;
+        try {
+            address = channel.receive(buffer);
+        } catch (final IOException e) {
+            metrics.dropped();
+            log("Troubles with receiving", e);
+            freeBuffers.add(putHelloPrefix(buffer));
+            return;
+        }
+        if (address == null) {
+            freeBuffers.add(putHelloPrefix(buffer));
+            return;
+        }
+        final long received = System.nanoTime();
+        metrics.received();
+        if (freeBuffers.isEmpty()) {
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+        // the request was received right after the prefix, so the buffer already holds the response
+        try {
+            workers.submit(() -> syncAdd(responses, new Response(buffer.flip(), address, received),
+                    () -> key.interestOpsOr(SelectionKey.OP_WRITE), selector));
+        } catch (final RejectedExecutionException e) {
+            // the server is closing and workers do not take new requests
+            metrics.dropped();
+            freeBuffers.add(putHelloPrefix(buffer));
+        }
+    }
+
+    private boolean syncIsEmpty() {
+        synchronized (responses) {
+            return responses.isEmpty();
+        }
+    }
+
+    private void send(final SelectionKey key) {
+        final Response response = syncPoll(responses, () -> key.interestOpsAnd(~SelectionKey.OP_WRITE));
+        if (response == null) {
+            return;
+        }
+        try {
+            if (channel.send(response.buffer, response.address) == 0) {
+                // the socket send buffer is full: keep the response first in line and OP_WRITE on
+                synchronized (responses) {
+                    responses.addFirst(response);
+                }
+                return;
+            }
+            metrics.sent();
+            // only the I/O thread records, so one histogram is enough
+            HelloUDPServerMetrics.recordSince(processing, response.received);
+        } catch (final IOException e) {
+            metrics.dropped();
+            log("Troubles with sending", e);
+        }
+        freeBuffers.add(putHelloPrefix(response.buffer));
+        key.interestOpsOr(SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void close() {
+        if (selector == null || channel == null || io == null) {
+            return;
+        }
+        closing = true;
+        selector.wakeup();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        closeAndAwaitTerm(workers, DRAIN_MILLIS);
+        closeAndAwaitTerm(io, Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        try {
+            selector.close();
+            channel.close();
+        } catch (final IOException e) {
+            log("Troubles with closing", e);
+        }
+        freeBuffers.forEach(BUFFERS::release);
+        freeBuffers.clear();
+        metrics.unregister();
+    }
+
+    public static void main(final String[] args) {
+        runServerMain(args, HelloUDPNonblockingServer::new, HelloUDPNonblockingServer::getMetrics);
+    }
+}
@@ -3,9 +3,11 @@ package info.kgeorgiy.ja.mozzhevilov.hello;
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
@@ -13,17 +15,34 @@ import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
 
 public class HelloUDPServer implements HelloServer {
 
-    private DatagramSocket socket;
+    private DatagramChannel socket;
     private ExecutorService threads;
+    private int threadsCount;
+    // where the server sends itself a wake-up datagram for every worker on close
+    private SocketAddress wakeAddress;
+    private final HelloUDPServerMetrics metrics = new HelloUDPServerMetrics();
+    // workers leave on a datagram from wakeAddress once set, the socket stays open until they have
+    private volatile boolean closing;
+
+    public HelloUDPServerMetrics getMetrics() {
+        return metrics;
+    }
 
     @Override
     public void start(final int port, final int threadsCount) {
         try {
-            socket = new DatagramSocket(port);
-        } catch (final SocketException e) {
-            HelloUDPUtils.log("Unable to create socket", e);
+            socket = DatagramChannel.open();
+            socket.bind(new InetSocketAddress(port));
+        } catch (final IOException e) {
+            if (closeChannelAfterException(socket, e)) {
+                HelloUDPUtils.log("Unable to create socket", e);
+            }
+            socket = null;
             return;
         }
+        this.threadsCount = threadsCount;
+        wakeAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        metrics.register("HelloUDPServer", port);
         threads = Executors.newFixedThreadPool(threadsCount);
         for (int i = 0; i < threadsCount; i++) {
             threads.submit(this::responde);
@@ -31,35 +50,59 @@ public class HelloUDPServer implements HelloServer {
     }
 
     private void responde() {
-        final int bufferSize;
+        final ByteBuffer buffer = BUFFERS.acquire();
+        final LatencyHistogram processing = metrics.newWorkerHistogram();
         try {
-            bufferSize = socket.getReceiveBufferSize();
-        } catch (final SocketException e) {
-            HelloUDPUtils.log("Troubles with getting ReceiveBufferSize", e);
-            return;
-        }
-        final byte[] buffer = new byte[bufferSize];
-        final DatagramPacket receivePacket = new DatagramPacket(buffer, bufferSize);
-        while (!Thread.interrupted() && !socket.isClosed()) {
-            try {
-                receivePacket.setData(buffer);
-                socket.receive(receivePacket);
-                final String receiveText = "Hello, " + HelloUDPUtils.getDatagramPacketDataAsString(receivePacket);
-                receivePacket.setData(receiveText.getBytes());
-                socket.send(receivePacket);
-            } catch (final IOException e) {
-                HelloUDPUtils.log("Troubles with processing DatagramPacket", e);
+            while (!Thread.interrupted() && socket.isOpen()) {
+                try {
+                    // the request is received right after the prefix, so the buffer already holds the response
+                    final SocketAddress address = socket.receive(putHelloPrefix(buffer));
+                    if (closing && wakeAddress.equals(address)) {
+                        // requests queued before the wake-up datagram are already answered
+                        return;
+                    }
+                    final long start = System.nanoTime();
+                    metrics.received();
+                    socket.send(buffer.flip(), address);
+                    metrics.sent();
+                    HelloUDPServerMetrics.recordSince(processing, start);
+                } catch (final IOException e) {
+                    if (socket.isOpen()) {
+                        metrics.dropped();
+                        HelloUDPUtils.log("Troubles with processing DatagramPacket", e);
+                    }
+                }
             }
+        } finally {
+            BUFFERS.release(buffer);
         }
     }
 
     @Override
     public void close() {
-        socket.close();
-        closeAndAwaitTerm(threads);
+        if (socket == null) {
+            return;
+        }
+        closing = true;
+        try {
+            // the datagrams queue up behind the received requests, so every worker answers those and leaves
+            for (int i = 0; i < threadsCount; i++) {
+                socket.send(ByteBuffer.allocate(0), wakeAddress);
+            }
+        } catch (final IOException e) {
+            HelloUDPUtils.log("Troubles with waking workers", e);
+        }
+        // workers that did not leave in time are interrupted, which closes the socket
+        closeAndAwaitTerm(threads, DRAIN_MILLIS);
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            HelloUDPUtils.log("Troubles with closing", e);
+        }
+        metrics.unregister();
     }
 
     public static void main(final String[] args) {
-        runServerMain(args, HelloUDPServer::new);
+        runServerMain(args, HelloUDPServer::new, HelloUDPServer::getMetrics);
     }
 }
@@ -0,0 +1,132 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Server counters updated without locks: {@link LongAdder}s for packets and a processing time
+ * histogram per worker, which are merged only when read. Readable through JMX or {@link #dump()}.
+ */
+public class HelloUDPServerMetrics implements HelloUDPServerMetricsMXBean {
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final List<LatencyHistogram> workerHistograms = new CopyOnWriteArrayList<>();
+    private volatile IntSupplier queueDepth = () -> 0;
+    private ObjectName name;
+
+    public void received() {
+        packetsIn.increment();
+    }
+
+    public void sent() {
+        packetsOut.increment();
+    }
+
+    public void dropped() {
+        drops.increment();
+    }
+
+    /**
+     * Histogram of processing time in microseconds owned by one worker.
+     */
+    public LatencyHistogram newWorkerHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        workerHistograms.add(histogram);
+        return histogram;
+    }
+
+    public static void recordSince(final LatencyHistogram histogram, final long startNanos) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public void setQueueDepth(final IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public void register(final String type, final int port) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("info.kgeorgiy.ja.mozzhevilov.hello:type=" + type + ",port=" + port);
+            server.registerMBean(this, name);
+        } catch (final JMException e) {
+            HelloUDPUtils.log("Unable to register metrics", e);
+            name = null;
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (final JMException e) {
+            HelloUDPUtils.log("Unable to unregister metrics", e);
+        }
+        name = null;
+    }
+
+    private LatencyHistogram processing() {
+        final LatencyHistogram merged = new LatencyHistogram();
+        workerHistograms.forEach(histogram -> histogram.addTo(merged));
+        return merged;
+    }
+
+    @Override
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    @Override
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    @Override
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getProcessingMicrosP50() {
+        return processing().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getProcessingMicrosP99() {
+        return processing().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getProcessingMicrosP999() {
+        return processing().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getProcessingMicrosMax() {
+        return processing().getMax();
+    }
+
+    @Override
+    public String dump() {
+        final LatencyHistogram processing = processing();
+        return String.format("packets_in %d%npackets_out %d%ndrops %d%nqueue_depth %d%n"
+                        + "processing_us_p50 %d%nprocessing_us_p99 %d%nprocessing_us_p999 %d%nprocessing_us_max %d%n",
+                getPacketsIn(), getPacketsOut(), getDrops(), getQueueDepth(),
+                processing.getValueAtPercentile(50), processing.getValueAtPercentile(99),
+                processing.getValueAtPercentile(99.9), processing.getMax());
+    }
+}
@@ -0,0 +1,24 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+/**
+ * JMX view of {@link HelloUDPServerMetrics}.
+ */
+public interface HelloUDPServerMetricsMXBean {
+    long getPacketsIn();
+
+    long getPacketsOut();
+
+    long getDrops();
+
+    int getQueueDepth();
+
+    long getProcessingMicrosP50();
+
+    long getProcessingMicrosP99();
+
+    long getProcessingMicrosP999();
+
+    long getProcessingMicrosMax();
+
+    String dump();
+}
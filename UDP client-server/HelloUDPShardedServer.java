@@ -0,0 +1,157 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static info.kgeorgiy.ja.mozzhevilov.hello.HelloUDPUtils.*;
+
+/**
+ * Every worker owns a channel bound to the same port with {@code SO_REUSEPORT}, so the kernel
+ * spreads clients between sockets instead of workers contending for one. A worker drains up to
+ * {@link #BATCH_SIZE} datagrams per wakeup and then sends all responses in a row.
+ * Responses the socket does not take are kept and sent on the next writable wakeup.
+ * Falls back to one channel shared by all workers where {@code SO_REUSEPORT} is not supported.
+ */
+public class HelloUDPShardedServer implements HelloServer {
+
+    private static final int BATCH_SIZE = 16;
+
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Selector> selectors = new CopyOnWriteArrayList<>();
+    private ExecutorService threads;
+    private volatile boolean closing;
+
+    private static DatagramChannel openChannel(final int port, final boolean reusePort) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+        } catch (final IOException e) {
+            closeChannelAfterException(channel, e);
+            throw e;
+        }
+        return channel;
+    }
+
+    @Override
+    public void start(final int port, final int threadsCount) {
+        try {
+            final DatagramChannel first = DatagramChannel.open();
+            final boolean reusePort = first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            first.close();
+            for (int i = 0; i < (reusePort ? threadsCount : 1); i++) {
+                channels.add(openChannel(port, reusePort));
+            }
+        } catch (final IOException e) {
+            log("Unable to open channels", e);
+            closeChannels();
+            return;
+        }
+        threads = Executors.newFixedThreadPool(threadsCount);
+        for (int i = 0; i < threadsCount; i++) {
+            final DatagramChannel channel = channels.get(i % channels.size());
+            threads.submit(() -> respond(channel));
+        }
+    }
+
+    private void respond(final DatagramChannel channel) {
+        final ByteBuffer[] buffers = new ByteBuffer[BATCH_SIZE];
+        final SocketAddress[] addresses = new SocketAddress[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            buffers[i] = putHelloPrefix(BUFFERS.acquire());
+        }
+        try (final Selector selector = Selector.open()) {
+            selectors.add(selector);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            int count = 0;
+            int sent = 0;
+            // a closing worker finishes the batch it has received and exits
+            while ((!closing || sent < count) && !Thread.interrupted() && channel.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                if (sent == count) {
+                    count = 0;
+                    sent = 0;
+                    try {
+                        while (count < BATCH_SIZE && (addresses[count] = channel.receive(buffers[count])) != null) {
+                            // the request was received right after the prefix, so the buffer already holds the response
+                            buffers[count++].flip();
+                        }
+                    } catch (final IOException e) {
+                        if (!channel.isOpen()) {
+                            throw e;
+                        }
+                        log("Troubles with receiving datagram", e);
+                        putHelloPrefix(buffers[count]);
+                    }
+                }
+                while (sent < count) {
+                    try {
+                        // a full send buffer takes nothing, the rest of the batch waits until the channel is writable
+                        if (channel.send(buffers[sent], addresses[sent]) == 0) {
+                            break;
+                        }
+                    } catch (final IOException e) {
+                        if (!channel.isOpen()) {
+                            throw e;
+                        }
+                        // only this client is unreachable, its response is dropped and the worker goes on
+                        log("Troubles with sending datagram", e);
+                    }
+                    putHelloPrefix(buffers[sent++]);
+                }
+                key.interestOps(sent < count ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        } catch (final IOException e) {
+            if (channel.isOpen()) {
+                log("Troubles with processing datagrams", e);
+            }
+        } finally {
+            selectors.removeIf(selector -> !selector.isOpen());
+            for (final ByteBuffer buffer : buffers) {
+                BUFFERS.release(buffer);
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (final DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                log("Troubles with closing", e);
+            }
+        }
+        channels.clear();
+    }
+
+    @Override
+    public void close() {
+        if (threads != null) {
+            closing = true;
+            selectors.forEach(Selector::wakeup);
+            closeAndAwaitTerm(threads, DRAIN_MILLIS);
+        }
+        closeChannels();
+    }
+
+    public static void main(final String[] args) {
+        runServerMain(args, HelloUDPShardedServer::new);
+    }
+}
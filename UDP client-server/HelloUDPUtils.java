@@ -3,7 +3,9 @@ package info.kgeorgiy.ja.mozzhevilov.hello;
 import info.kgeorgiy.java.advanced.hello.HelloClient;
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.nio.ByteBuffer;
@@ -15,14 +17,31 @@ import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class HelloUDPUtils {
 
     private final static int AWAIT_TERM_SEC = 60;
 
+    private final static byte[] HELLO = "Hello, ".getBytes(StandardCharsets.UTF_8);
+
     public static int TIMEOUT = 300;
 
+    // how long a closing server keeps sending responses to requests it has already received
+    public static final int DRAIN_MILLIS = 200;
+
+    // largest UDP payload over IPv4
+    public static final int MAX_DATAGRAM_SIZE = 65_507;
+
+    // idle direct buffers kept for reuse, 16 MB with datagram sized buffers
+    private final static int POOLED_BUFFERS = 256;
+
+    /**
+     * Direct buffers of {@link #MAX_DATAGRAM_SIZE} shared by all clients and servers.
+     */
+    public static final ByteBufferPool BUFFERS = new ByteBufferPool(POOLED_BUFFERS, MAX_DATAGRAM_SIZE);
+
     public static void log(String message) {
         System.out.println(message);
     }
@@ -70,6 +89,184 @@ public class HelloUDPUtils {
         }
     }
 
+    private static boolean isDigit(final byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    private static int decimalLength(final int number) {
+        int length = 1;
+        for (int n = number; n >= 10; n /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    // bytes taken by the UTF-8 sequence at pos, 1 for a malformed one, as a decoder resynchronizes after it
+    private static int step(final ByteBuffer data, final int pos, final int end) {
+        final byte b = data.get(pos);
+        final int length = b >= 0 ? 1 : (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+        if (length == 1 || pos + length > end) {
+            return 1;
+        }
+        for (int i = 1; i < length; i++) {
+            if ((data.get(pos + i) & 0xC0) != 0x80) {
+                return 1;
+            }
+        }
+        return length;
+    }
+
+    // decimal value of the code point at pos in any script, -1 if it is not a digit
+    private static int digitAt(final ByteBuffer data, final int pos, final int end) {
+        final byte b = data.get(pos);
+        if (b >= 0) {
+            return isDigit(b) ? b - '0' : -1;
+        }
+        final int length = step(data, pos, end);
+        if (length == 1) {
+            return -1;
+        }
+        int codePoint = b & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (data.get(pos + i) & 0x3F);
+        }
+        return Character.digit(codePoint, 10);
+    }
+
+    private static int checkNumber(final ByteBuffer data, final int begin, final int end, final int number) {
+        int pos = begin;
+        while (pos < end && digitAt(data, pos, end) < 0) {
+            pos += step(data, pos, end);
+        }
+        if (pos == end) {
+            return -2;
+        }
+        int digits = 0;
+        long value = 0;
+        for (int digit; pos < end && (digit = digitAt(data, pos, end)) >= 0; pos += step(data, pos, end)) {
+            if (digits++ < 10) {
+                value = value * 10 + digit;
+            }
+        }
+        if (number >= 0 && digits == decimalLength(number) && value == number) {
+            return pos;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Same as {@link #verify(String, int, int)} for the data between position and limit,
+     * but reads the numbers straight from the UTF-8 bytes without allocating, the buffer is not changed.
+     * Digits of other scripts are read with {@link Character#digit(int, int)}.
+     */
+    public static boolean verify(final ByteBuffer data, final int threadNumber, final int requestNumber) {
+        final int end = data.limit();
+        int p = checkNumber(data, data.position(), end, threadNumber);
+        if (p < 0) {
+            return false;
+        }
+        p = checkNumber(data, p, end, requestNumber);
+        if (p < 0) {
+            return false;
+        }
+        return checkNumber(data, p, end, -1) == -2;
+    }
+
+    private static long readNumber(final ByteBuffer data, final int[] pos) {
+        final int end = data.limit();
+        while (pos[0] < end && digitAt(data, pos[0], end) < 0) {
+            pos[0] += step(data, pos[0], end);
+        }
+        if (pos[0] == end) {
+            return -1;
+        }
+        long value = 0;
+        for (int digit; pos[0] < end && (digit = digitAt(data, pos[0], end)) >= 0; pos[0] += step(data, pos[0], end)) {
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return -2;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the thread and request numbers of a response accepted by {@link #verify(ByteBuffer, int, int)},
+     * so it can be routed to the thread waiting for it. The buffer is not changed.
+     *
+     * @return {@code threadNumber << 32 | requestNumber}, or {@code -1} if the data is not a response
+     */
+    public static long parseIds(final ByteBuffer data) {
+        final int[] pos = {data.position()};
+        final long thread = readNumber(data, pos);
+        final long request = readNumber(data, pos);
+        return thread >= 0 && request >= 0 && readNumber(data, pos) == -1 ? thread << 32 | request : -1;
+    }
+
+    /**
+     * Clears the buffer and writes {@code "Hello, "}, the position is left right after it,
+     * so a request received there turns into the response without copying.
+     */
+    public static ByteBuffer putHelloPrefix(final ByteBuffer buffer) {
+        return buffer.clear().put(HELLO);
+    }
+
+    private static void putNumber(final ByteBuffer buffer, final int number) {
+        final int pos = buffer.position();
+        final int length = decimalLength(number);
+        for (int i = pos + length - 1, n = number; i >= pos; i--, n /= 10) {
+            buffer.put(i, (byte) ('0' + n % 10));
+        }
+        buffer.position(pos + length);
+    }
+
+    /**
+     * Writes {@code prefix + threadNumber + "_" + requestNumber} without building a string
+     * and flips the buffer.
+     */
+    public static ByteBuffer putRequest(final ByteBuffer buffer, final byte[] prefix, final int threadNumber, final int requestNumber) {
+        buffer.clear().put(prefix);
+        putNumber(buffer, threadNumber);
+        buffer.put((byte) '_');
+        putNumber(buffer, requestNumber);
+        return buffer.flip();
+    }
+
+    /**
+     * Waits on the selector of a connected channel for the response to the request.
+     * Late duplicates and wrong responses are skipped, only the deadline ends the attempt.
+     *
+     * @param onMismatch called for every skipped response, may be {@code null}
+     * @return whether the response arrived before the deadline
+     */
+    public static boolean awaitResponse(final DatagramChannel channel, final Selector selector, final ByteBuffer response,
+                                        final int threadNumber, final int requestNumber, final long deadline,
+                                        final Runnable onMismatch) throws IOException {
+        for (long now; (now = System.nanoTime()) < deadline; ) {
+            if (selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now))) == 0) {
+                continue;
+            }
+            selector.selectedKeys().clear();
+            try {
+                channel.read(response.clear());
+            } catch (final IOException e) {
+                if (!channel.isOpen()) {
+                    throw e;
+                }
+                // a connected channel reports ICMP errors such as an unreachable port, the attempt still lasts until the deadline
+                continue;
+            }
+            if (verify(response.flip(), threadNumber, requestNumber)) {
+                return true;
+            }
+            if (onMismatch != null) {
+                onMismatch.run();
+            }
+        }
+        return false;
+    }
+
     public static boolean verify(final String data, final int threadNumber, final int requestNumber) {
         int p = checkNumber(data, 0, Integer.toString(threadNumber));
         if (p < 0) {
@@ -92,6 +289,21 @@ public class HelloUDPUtils {
         }
     }
 
+    /**
+     * Lets already submitted tasks finish for at most {@code drainMillis}, then interrupts the rest.
+     */
+    public static void closeAndAwaitTerm(final ExecutorService threads, final long drainMillis) {
+        threads.shutdown();
+        try {
+            if (threads.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeAndAwaitTerm(threads);
+    }
+
     public static boolean closeSelectorAfterException(final Selector selector, final IOException e) {
         try {
             if (selector == null || !selector.isOpen()) {
@@ -168,6 +380,28 @@ public class HelloUDPUtils {
         }
     }
 
+    /**
+     * Same as {@link #runServerMain(String[], Supplier)}, but an input line {@code metrics}
+     * prints the server's metrics instead of closing it.
+     */
+    public static <S extends HelloServer> void runServerMain(final String[] args, final Supplier<S> supplier,
+                                                             final Function<S, HelloUDPServerMetrics> metrics) {
+        if (areBadArgs(args, 2)) {
+            return;
+        }
+        try (final S server = supplier.get()) {
+            server.start(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            for (String line; (line = in.readLine()) != null && line.strip().equals("metrics"); ) {
+                System.out.print(metrics.apply(server).dump());
+            }
+        } catch (final NumberFormatException e) {
+            System.out.println("Bad numbers in arguments: " + e.getMessage());
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void runClientMain(final String[] args, Supplier<HelloClient> supplier) {
         if (areBadArgs(args, 5)) {
             return;
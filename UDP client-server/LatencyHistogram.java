@@ -0,0 +1,86 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram in the spirit of HdrHistogram: values below 128 are exact,
+ * larger ones fall into buckets no wider than 1/64 of their value.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * HALF + SUB_BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int bucket = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return bucket * HALF + (int) (value >> bucket);
+    }
+
+    private static long lowestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int bucket = index / HALF - 1;
+        return (long) (index - bucket * HALF) << bucket;
+    }
+
+    /**
+     * @param value non-negative value, for example latency in microseconds
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        total.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Adds everything recorded here to the target, used to merge per-thread histograms.
+     */
+    public void addTo(final LatencyHistogram target) {
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = counts.get(i);
+            if (count != 0) {
+                target.counts.addAndGet(i, count);
+                target.total.addAndGet(count);
+            }
+        }
+        target.max.accumulateAndGet(getMax(), Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between {@code 0} and {@code 100}
+     * @return lowest value of the bucket holding the percentile, {@code 0} if nothing is recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(lowestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
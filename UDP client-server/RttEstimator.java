@@ -0,0 +1,73 @@
+package info.kgeorgiy.ja.mozzhevilov.hello;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retransmission timeout of one destination, computed from smoothed round trip time
+ * and its variance as in RFC 6298. Only answers to requests sent once are sampled,
+ * every retransmission of a request doubles its timeout.
+ */
+public class RttEstimator {
+    public static final int MIN_TIMEOUT = 5;
+    public static final int MAX_TIMEOUT = 10_000;
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private long smoothedRttNanos;
+    private long rttVarianceNanos;
+    private int timeout = HelloUDPUtils.TIMEOUT;
+    private long samples;
+    private final LongAdder retransmits = new LongAdder();
+
+    /**
+     * @param attempt number of the send of the current request, {@code 0} for the first one
+     * @return timeout in milliseconds
+     */
+    public synchronized int timeout(final int attempt) {
+        return (int) Math.min(MAX_TIMEOUT, (long) timeout << Math.min(attempt, MAX_BACKOFF_SHIFT));
+    }
+
+    public synchronized void sample(final long rttNanos) {
+        if (samples == 0) {
+            smoothedRttNanos = rttNanos;
+            rttVarianceNanos = rttNanos / 2;
+        } else {
+            rttVarianceNanos = (3 * rttVarianceNanos + Math.abs(smoothedRttNanos - rttNanos)) / 4;
+            smoothedRttNanos = (7 * smoothedRttNanos + rttNanos) / 8;
+        }
+        samples++;
+        final long rto = TimeUnit.NANOSECONDS.toMillis(smoothedRttNanos + 4 * rttVarianceNanos);
+        timeout = (int) Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, rto));
+    }
+
+    public void retransmitted() {
+        retransmits.increment();
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    public synchronized long getRttVarianceNanos() {
+        return rttVarianceNanos;
+    }
+
+    public synchronized int getTimeout() {
+        return timeout;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public long getRetransmits() {
+        return retransmits.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("srtt=%dus rttvar=%dus rto=%dms samples=%d retransmits=%d",
+                TimeUnit.NANOSECONDS.toMicros(getSmoothedRttNanos()), TimeUnit.NANOSECONDS.toMicros(getRttVarianceNanos()),
+                getTimeout(), getSamples(), getRetransmits());
+    }
+}
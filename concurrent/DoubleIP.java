@@ -0,0 +1,45 @@
+package info.kgeorgiy.ja.mozzhevilov.concurrent;
+
+import java.nio.DoubleBuffer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Parallel operations over {@code double} values that never box elements or partial results.
+ * Buffer variants work on the remaining elements of the buffer, which may be a view of an off-heap buffer,
+ * and do not change its position.
+ */
+public interface DoubleIP {
+  double mapReduce(int threads, DoubleBuffer values, DoubleUnaryOperator lift, double identity, DoubleBinaryOperator operator) throws InterruptedException;
+
+  double maximum(int threads, DoubleBuffer values) throws InterruptedException;
+
+  double minimum(int threads, DoubleBuffer values) throws InterruptedException;
+
+  double[] filter(int threads, DoubleBuffer values, DoublePredicate predicate) throws InterruptedException;
+
+  default double reduce(int threads, DoubleBuffer values, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, values, DoubleUnaryOperator.identity(), identity, operator);
+  }
+
+  default double reduce(int threads, double[] values, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+    return reduce(threads, DoubleBuffer.wrap(values), identity, operator);
+  }
+
+  default double mapReduce(int threads, double[] values, DoubleUnaryOperator lift, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, DoubleBuffer.wrap(values), lift, identity, operator);
+  }
+
+  default double maximum(int threads, double[] values) throws InterruptedException {
+    return maximum(threads, DoubleBuffer.wrap(values));
+  }
+
+  default double minimum(int threads, double[] values) throws InterruptedException {
+    return minimum(threads, DoubleBuffer.wrap(values));
+  }
+
+  default double[] filter(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+    return filter(threads, DoubleBuffer.wrap(values), predicate);
+  }
+}
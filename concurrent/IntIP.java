@@ -0,0 +1,45 @@
+package info.kgeorgiy.ja.mozzhevilov.concurrent;
+
+import java.nio.IntBuffer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Parallel operations over {@code int} values that never box elements or partial results.
+ * Buffer variants work on the remaining elements of the buffer, which may be a view of an off-heap buffer,
+ * and do not change its position.
+ */
+public interface IntIP {
+  int mapReduce(int threads, IntBuffer values, IntUnaryOperator lift, int identity, IntBinaryOperator operator) throws InterruptedException;
+
+  int maximum(int threads, IntBuffer values) throws InterruptedException;
+
+  int minimum(int threads, IntBuffer values) throws InterruptedException;
+
+  int[] filter(int threads, IntBuffer values, IntPredicate predicate) throws InterruptedException;
+
+  default int reduce(int threads, IntBuffer values, int identity, IntBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, values, IntUnaryOperator.identity(), identity, operator);
+  }
+
+  default int reduce(int threads, int[] values, int identity, IntBinaryOperator operator) throws InterruptedException {
+    return reduce(threads, IntBuffer.wrap(values), identity, operator);
+  }
+
+  default int mapReduce(int threads, int[] values, IntUnaryOperator lift, int identity, IntBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, IntBuffer.wrap(values), lift, identity, operator);
+  }
+
+  default int maximum(int threads, int[] values) throws InterruptedException {
+    return maximum(threads, IntBuffer.wrap(values));
+  }
+
+  default int minimum(int threads, int[] values) throws InterruptedException {
+    return minimum(threads, IntBuffer.wrap(values));
+  }
+
+  default int[] filter(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+    return filter(threads, IntBuffer.wrap(values), predicate);
+  }
+}
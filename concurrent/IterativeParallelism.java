@@ -3,48 +3,152 @@ package info.kgeorgiy.ja.mozzhevilov.concurrent;
 import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.*;
-import java.util.function.Function;
-import java.util.function.Predicate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 
-public class IterativeParallelism implements AdvancedIP {
+public class IterativeParallelism implements AdvancedIP, IntIP, LongIP, DoubleIP {
+  // how often short-circuiting blocks look at the shared flag, in elements minus one
+  private static final int CANCEL_CHECK_MASK = (1 << 6) - 1;
+  // blocks per thread for sized spliterators
+  private static final int BLOCKS_PER_THREAD = 4;
+  // block size for spliterators of unknown size
+  private static final int UNSIZED_BLOCK = 1 << 10;
+
   final private ParallelMapper mapper;
+  final private ExecutorService executor;
 
   public IterativeParallelism() {
     mapper = null;
+    executor = null;
   }
 
   public IterativeParallelism(ParallelMapper mapper) {
     this.mapper = mapper;
+    executor = null;
   }
 
-  private <T, R> R parallelIt(int threads,
-                         List<T> values,
-                         Function<? super Stream<T>, R> task,
-                         Function<? super Stream<R>, R> collector) throws InterruptedException {
+  /**
+   * Runs blocks on the given executor instead of starting new threads on every call.
+   * The executor is not shut down by this class, so it can be a shared fixed pool
+   * or a virtual-thread-per-task executor.
+   */
+  public IterativeParallelism(ExecutorService executor) {
+    mapper = null;
+    this.executor = Objects.requireNonNull(executor);
+  }
+
+  private <S, R> List<R> runOnExecutor(List<S> subTasks,
+                                       Function<? super S, R> task) throws InterruptedException {
+    final List<Future<R>> futures = new ArrayList<>();
+    for (S subTask : subTasks) {
+      futures.add(executor.submit(() -> task.apply(subTask)));
+    }
+    final List<R> res = new ArrayList<>();
+    try {
+      for (Future<R> future : futures) {
+        res.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw e;
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    return res;
+  }
+
+  private interface RangeTask {
+    void run(int block, int from, int to);
+  }
+
+  // block i covers [bounds[i], bounds[i + 1])
+  private int[] splitRanges(int threads, int size) {
     if (threads <= 0) {
       throw new IllegalArgumentException("thread number should be >= 0");
     }
-    final List<Stream<T>> subTasks = new ArrayList<>();
-    List<R> res;
-    threads = Math.min(values.size(), threads);
-    int blockSize = values.size() / threads + 1;
-    final int rest = values.size() % threads;
+    threads = Math.max(1, Math.min(size, threads));
+    final int[] bounds = new int[threads + 1];
+    int blockSize = size / threads + 1;
+    final int rest = size % threads;
     for (int i = 0, pos = 0; i < threads; ++i, pos += blockSize) {
       if (rest == i) {
         blockSize--;
       }
-      subTasks.add(values.subList(pos, pos + blockSize).stream());
+      bounds[i] = pos;
     }
+    bounds[threads] = size;
+    return bounds;
+  }
+
+  private <T> List<List<T>> splitIt(int threads, List<T> values) {
+    final int[] bounds = splitRanges(threads, values.size());
+    final List<List<T>> blocks = new ArrayList<>();
+    if (values instanceof RandomAccess) {
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        blocks.add(values.subList(bounds[i], bounds[i + 1]));
+      }
+    } else {
+      // subList of a linked list walks from the head, so copy the blocks in one pass
+      final Iterator<T> iterator = values.iterator();
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        final List<T> block = new ArrayList<>(bounds[i + 1] - bounds[i]);
+        for (int j = bounds[i]; j < bounds[i + 1]; j++) {
+          block.add(iterator.next());
+        }
+        blocks.add(block);
+      }
+    }
+    return blocks;
+  }
+
+  private void runRanges(int[] bounds, RangeTask task) throws InterruptedException {
+    final List<Integer> blocks = new ArrayList<>();
+    for (int i = 0; i + 1 < bounds.length; i++) {
+      blocks.add(i);
+    }
+    runBlocks(blocks, i -> {
+      task.run(i, bounds[i], bounds[i + 1]);
+      return null;
+    });
+  }
+
+  // moves the first counts[i] elements of every block to the front of the array, returns their total
+  private static int compact(Object res, int[] bounds, int[] counts) {
+    int size = 0;
+    for (int i = 0; i < counts.length; i++) {
+      System.arraycopy(res, bounds[i], res, size, counts[i]);
+      size += counts[i];
+    }
+    return size;
+  }
+
+  private <S, R> List<R> runBlocks(List<S> subTasks, Function<? super S, R> task) throws InterruptedException {
+    final List<R> res;
     if (mapper != null) {
       res = mapper.map(task, subTasks);
+    } else if (executor != null) {
+      res = runOnExecutor(subTasks, task);
     } else {
       final List<Thread> workers = new ArrayList<>();
-      res = new ArrayList<>(Collections.nCopies(threads, null));
-      for (int i = 0; i < threads; i++) {
+      res = new ArrayList<>(Collections.nCopies(subTasks.size(), null));
+      for (int i = 0; i < subTasks.size(); i++) {
         int finalI = i;
         Thread tempThread = new Thread(() -> res.set(finalI, task.apply(subTasks.get(finalI))));
         workers.add(tempThread);
@@ -71,7 +175,320 @@ public class IterativeParallelism implements AdvancedIP {
         throw exception;
       }
     }
-    return collector.apply(res.stream());
+    return res;
+  }
+
+  private <T, R> R parallelIt(int threads,
+                         List<T> values,
+                         Function<? super Stream<T>, R> task,
+                         Function<? super Stream<R>, R> collector) throws InterruptedException {
+    final List<Stream<T>> subTasks = new ArrayList<>();
+    for (List<T> block : splitIt(threads, values)) {
+      subTasks.add(block.stream());
+    }
+    return collector.apply(runBlocks(subTasks, task).stream());
+  }
+
+  /**
+   * Runs the pipeline in a single pass per block, every block writes its results
+   * into one array presized to {@code values.size()} starting at the block offset.
+   */
+  public <T, U> List<U> collect(int threads, List<? extends T> values, Pipeline<T, U> pipeline) throws InterruptedException {
+    final List<? extends T> source = values instanceof RandomAccess ? values : new ArrayList<>(values);
+    final int[] bounds = splitRanges(threads, source.size());
+    final Object[] res = new Object[source.size()];
+    final int[] counts = new int[bounds.length - 1];
+    runRanges(bounds, (block, from, to) -> {
+      int pos = from;
+      for (T value : source.subList(from, to)) {
+        final Object result = pipeline.apply(value);
+        if (result != Pipeline.SKIP) {
+          res[pos++] = result;
+        }
+      }
+      counts[block] = pos - from;
+    });
+    final int size = compact(res, bounds, counts);
+    @SuppressWarnings("unchecked")
+    final List<U> list = (List<U>) Arrays.asList(res).subList(0, size);
+    // map and filter have always returned lists the caller may change
+    return new ArrayList<>(list);
+  }
+
+  /**
+   * Runs the pipeline and folds its results with the monoid in a single pass per block.
+   */
+  public <T, U> U reduce(int threads, List<? extends T> values, Pipeline<T, U> pipeline, Monoid<U> monoid) throws InterruptedException {
+    final List<U> res = runBlocks(splitIt(threads, values), block -> {
+      U acc = monoid.getIdentity();
+      for (T value : block) {
+        final Object result = pipeline.apply(value);
+        if (result != Pipeline.SKIP) {
+          @SuppressWarnings("unchecked")
+          final U u = (U) result;
+          acc = monoid.getOperator().apply(acc, u);
+        }
+      }
+      return acc;
+    });
+    return res.stream().reduce(monoid.getIdentity(), monoid.getOperator());
+  }
+
+  @Override
+  public int mapReduce(int threads, IntBuffer values, IntUnaryOperator lift, int identity, IntBinaryOperator operator) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final int[] partial = new int[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      int acc = identity;
+      for (int i = base + from; i < base + to; i++) {
+        acc = operator.applyAsInt(acc, lift.applyAsInt(values.get(i)));
+      }
+      partial[block] = acc;
+    });
+    int res = identity;
+    for (int value : partial) {
+      res = operator.applyAsInt(res, value);
+    }
+    return res;
+  }
+
+  @Override
+  public int maximum(int threads, IntBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, IntUnaryOperator.identity(), Integer.MIN_VALUE, Math::max);
+  }
+
+  @Override
+  public int minimum(int threads, IntBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, IntUnaryOperator.identity(), Integer.MAX_VALUE, Math::min);
+  }
+
+  @Override
+  public int[] filter(int threads, IntBuffer values, IntPredicate predicate) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final int[] res = new int[values.remaining()];
+    final int[] counts = new int[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      int pos = from;
+      for (int i = base + from; i < base + to; i++) {
+        final int value = values.get(i);
+        if (predicate.test(value)) {
+          res[pos++] = value;
+        }
+      }
+      counts[block] = pos - from;
+    });
+    final int size = compact(res, bounds, counts);
+    return size == res.length ? res : Arrays.copyOf(res, size);
+  }
+
+  @Override
+  public long mapReduce(int threads, LongBuffer values, LongUnaryOperator lift, long identity, LongBinaryOperator operator) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final long[] partial = new long[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      long acc = identity;
+      for (int i = base + from; i < base + to; i++) {
+        acc = operator.applyAsLong(acc, lift.applyAsLong(values.get(i)));
+      }
+      partial[block] = acc;
+    });
+    long res = identity;
+    for (long value : partial) {
+      res = operator.applyAsLong(res, value);
+    }
+    return res;
+  }
+
+  @Override
+  public long maximum(int threads, LongBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, LongUnaryOperator.identity(), Long.MIN_VALUE, Math::max);
+  }
+
+  @Override
+  public long minimum(int threads, LongBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, LongUnaryOperator.identity(), Long.MAX_VALUE, Math::min);
+  }
+
+  @Override
+  public long[] filter(int threads, LongBuffer values, LongPredicate predicate) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final long[] res = new long[values.remaining()];
+    final int[] counts = new int[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      int pos = from;
+      for (int i = base + from; i < base + to; i++) {
+        final long value = values.get(i);
+        if (predicate.test(value)) {
+          res[pos++] = value;
+        }
+      }
+      counts[block] = pos - from;
+    });
+    final int size = compact(res, bounds, counts);
+    return size == res.length ? res : Arrays.copyOf(res, size);
+  }
+
+  @Override
+  public double mapReduce(int threads, DoubleBuffer values, DoubleUnaryOperator lift, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final double[] partial = new double[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      double acc = identity;
+      for (int i = base + from; i < base + to; i++) {
+        acc = operator.applyAsDouble(acc, lift.applyAsDouble(values.get(i)));
+      }
+      partial[block] = acc;
+    });
+    double res = identity;
+    for (double value : partial) {
+      res = operator.applyAsDouble(res, value);
+    }
+    return res;
+  }
+
+  @Override
+  public double maximum(int threads, DoubleBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, DoubleUnaryOperator.identity(), Double.NEGATIVE_INFINITY, Math::max);
+  }
+
+  @Override
+  public double minimum(int threads, DoubleBuffer values) throws InterruptedException {
+    if (!values.hasRemaining()) {
+      throw new IllegalArgumentException("Values are null or empty");
+    }
+    return mapReduce(threads, values, DoubleUnaryOperator.identity(), Double.POSITIVE_INFINITY, Math::min);
+  }
+
+  @Override
+  public double[] filter(int threads, DoubleBuffer values, DoublePredicate predicate) throws InterruptedException {
+    final int[] bounds = splitRanges(threads, values.remaining());
+    final double[] res = new double[values.remaining()];
+    final int[] counts = new int[bounds.length - 1];
+    final int base = values.position();
+    runRanges(bounds, (block, from, to) -> {
+      int pos = from;
+      for (int i = base + from; i < base + to; i++) {
+        final double value = values.get(i);
+        if (predicate.test(value)) {
+          res[pos++] = value;
+        }
+      }
+      counts[block] = pos - from;
+    });
+    final int size = compact(res, bounds, counts);
+    return size == res.length ? res : Arrays.copyOf(res, size);
+  }
+
+  /**
+   * Hands out blocks of a spliterator in encounter order, splitting lazily,
+   * so blocks of an unsized or still arriving source are processed as they are read.
+   */
+  private static class SpliteratorBlocks<T> {
+    private final Deque<Spliterator<? extends T>> pending = new ArrayDeque<>();
+    private final long target;
+    private int produced;
+
+    SpliteratorBlocks(int threads, Spliterator<? extends T> source) {
+      pending.add(source);
+      target = source.hasCharacteristics(Spliterator.SIZED)
+              ? Math.max(1, source.estimateSize() / ((long) threads * BLOCKS_PER_THREAD))
+              : UNSIZED_BLOCK;
+    }
+
+    synchronized Block<T> next() {
+      while (!pending.isEmpty()) {
+        final Spliterator<? extends T> first = pending.peekFirst();
+        if (first.estimateSize() > target) {
+          final Spliterator<? extends T> prefix = first.trySplit();
+          if (prefix != null) {
+            pending.addFirst(prefix);
+            continue;
+          }
+        }
+        return new Block<>(produced++, pending.pollFirst());
+      }
+      return null;
+    }
+  }
+
+  private static class Block<T> {
+    private final int number;
+    private final Spliterator<? extends T> values;
+
+    Block(int number, Spliterator<? extends T> values) {
+      this.number = number;
+      this.values = values;
+    }
+  }
+
+  private static class Accumulator<T, R> implements Consumer<T> {
+    private final Function<? super T, ? extends R> lift;
+    private final Monoid<R> monoid;
+    private R value;
+
+    Accumulator(Function<? super T, ? extends R> lift, Monoid<R> monoid) {
+      this.lift = lift;
+      this.monoid = monoid;
+      value = monoid.getIdentity();
+    }
+
+    @Override
+    public void accept(T t) {
+      value = monoid.getOperator().apply(value, lift.apply(t));
+    }
+  }
+
+  /**
+   * Reduces any source, including non random access, unsized and streaming ones.
+   * Workers pull blocks from the source while it is being split, partial results
+   * are combined in encounter order.
+   */
+  public <T, R> R mapReduce(int threads, Spliterator<? extends T> source,
+                            Function<? super T, ? extends R> lift, Monoid<R> monoid) throws InterruptedException {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("thread number should be >= 0");
+    }
+    final SpliteratorBlocks<T> blocks = new SpliteratorBlocks<>(threads, source);
+    final SortedMap<Integer, R> partial = new TreeMap<>();
+    final List<Integer> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      workers.add(i);
+    }
+    runBlocks(workers, worker -> {
+      for (Block<T> block; (block = blocks.next()) != null; ) {
+        final Accumulator<T, R> acc = new Accumulator<>(lift, monoid);
+        block.values.forEachRemaining(acc);
+        synchronized (partial) {
+          partial.put(block.number, acc.value);
+        }
+      }
+      return null;
+    });
+    return partial.values().stream().reduce(monoid.getIdentity(), monoid.getOperator());
+  }
+
+  public <T> T reduce(int threads, Spliterator<? extends T> source, Monoid<T> monoid) throws InterruptedException {
+    return mapReduce(threads, source, Function.identity(), monoid);
   }
 
   @Override
@@ -95,17 +512,12 @@ public class IterativeParallelism implements AdvancedIP {
 
   @Override
   public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-    return parallelIt(threads, values,
-            stream -> stream.filter(predicate).collect(Collectors.toList()),
-            stream -> stream.flatMap(Collection::stream).collect(Collectors.toList()));
+    return collect(threads, values, Pipeline.<T>identity().filter(predicate));
   }
 
   @Override
   public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f) throws InterruptedException {
-    // :NOTE: intermediate structures
-    return parallelIt(threads, values,
-            stream -> stream.map(f).collect(Collectors.toList()),
-            stream -> stream.flatMap(Collection::stream).collect(Collectors.toList()));
+    return collect(threads, values, Pipeline.<T>identity().map(f));
   }
 
   @Override
@@ -125,13 +537,29 @@ public class IterativeParallelism implements AdvancedIP {
 
   @Override
   public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-    return parallelIt(threads, values,
-            stream -> stream.allMatch(predicate),
-            stream -> stream.allMatch(Boolean::booleanValue));
+    return !any(threads, values, predicate.negate());
   }
 
+  /**
+   * Blocks share a flag and stop as soon as any of them finds a match,
+   * blocks that have not started yet return immediately.
+   */
   @Override
   public <T> boolean any(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-    return !all(threads, values, predicate.negate());
+    final AtomicBoolean found = new AtomicBoolean();
+    runBlocks(splitIt(threads, values), block -> {
+      int checked = 0;
+      for (T value : block) {
+        if ((checked++ & CANCEL_CHECK_MASK) == 0 && found.get()) {
+          return false;
+        }
+        if (predicate.test(value)) {
+          found.set(true);
+          return true;
+        }
+      }
+      return false;
+    });
+    return found.get();
   }
 }
\ No newline at end of file
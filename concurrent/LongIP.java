@@ -0,0 +1,45 @@
+package info.kgeorgiy.ja.mozzhevilov.concurrent;
+
+import java.nio.LongBuffer;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Parallel operations over {@code long} values that never box elements or partial results.
+ * Buffer variants work on the remaining elements of the buffer, which may be a view of an off-heap buffer,
+ * and do not change its position.
+ */
+public interface LongIP {
+  long mapReduce(int threads, LongBuffer values, LongUnaryOperator lift, long identity, LongBinaryOperator operator) throws InterruptedException;
+
+  long maximum(int threads, LongBuffer values) throws InterruptedException;
+
+  long minimum(int threads, LongBuffer values) throws InterruptedException;
+
+  long[] filter(int threads, LongBuffer values, LongPredicate predicate) throws InterruptedException;
+
+  default long reduce(int threads, LongBuffer values, long identity, LongBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, values, LongUnaryOperator.identity(), identity, operator);
+  }
+
+  default long reduce(int threads, long[] values, long identity, LongBinaryOperator operator) throws InterruptedException {
+    return reduce(threads, LongBuffer.wrap(values), identity, operator);
+  }
+
+  default long mapReduce(int threads, long[] values, LongUnaryOperator lift, long identity, LongBinaryOperator operator) throws InterruptedException {
+    return mapReduce(threads, LongBuffer.wrap(values), lift, identity, operator);
+  }
+
+  default long maximum(int threads, long[] values) throws InterruptedException {
+    return maximum(threads, LongBuffer.wrap(values));
+  }
+
+  default long minimum(int threads, long[] values) throws InterruptedException {
+    return minimum(threads, LongBuffer.wrap(values));
+  }
+
+  default long[] filter(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+    return filter(threads, LongBuffer.wrap(values), predicate);
+  }
+}
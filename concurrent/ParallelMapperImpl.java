@@ -3,28 +3,87 @@ package info.kgeorgiy.ja.mozzhevilov.concurrent;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class ParallelMapperImpl implements ParallelMapper {
 
   private final Queue<Runnable> queueOfTasks;
+  private final List<Deque<Chunk<?, ?>>> stealingQueues;
+  // deque of the current worker in work-stealing mode
+  private final ThreadLocal<Deque<Chunk<?, ?>>> ownQueue = new ThreadLocal<>();
+  private final AtomicLong submitted;
+  private final AtomicInteger idleWorkers = new AtomicInteger();
+  private final Semaphore permits;
+  // asynchronous submissions waiting for queue slots, drained by whoever frees a slot
+  private final Queue<PendingSubmission> pending = new ConcurrentLinkedQueue<>();
   private final List<Thread> listOfThreads;
   private final Set<ResultCollector<?>> setOfCollectors;
   private volatile boolean volatileBooleanClose;
+  private int nextQueue;
 
   public ParallelMapperImpl(final int listOfThreadsCount) {
+    this(listOfThreadsCount, false);
+  }
+
+  /**
+   * @param workStealing if {@code true}, every worker owns a deque, {@link #map} gives every worker
+   *                     one contiguous chunk of {@code args}; a chunk splits off its upper half whenever
+   *                     its worker's deque has been emptied by thieves, so chunks get smaller only
+   *                     while there are idle workers; otherwise one task per element goes to a single shared queue
+   */
+  public ParallelMapperImpl(final int listOfThreadsCount, final boolean workStealing) {
+    this(listOfThreadsCount, workStealing, 0, false);
+  }
+
+  /**
+   * @param capacity maximum number of queued tasks, {@link #map} blocks while the queue is full;
+   *                 {@code 0} means unbounded
+   * @param fair     if {@code true}, blocked {@link #map} callers get free slots in arrival order,
+   *                 so concurrent callers interleave their tasks instead of one caller filling the queue
+   */
+  public ParallelMapperImpl(final int listOfThreadsCount, final boolean workStealing, final int capacity, final boolean fair) {
     if (listOfThreadsCount <= 0) {
       throw new IllegalArgumentException("Count of thread must be > 0");
     }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must be >= 0");
+    }
+    permits = capacity == 0 ? null : new Semaphore(capacity, fair);
     setOfCollectors = new HashSet<>();
     queueOfTasks = new ArrayDeque<>();
+    submitted = new AtomicLong();
     listOfThreads = new ArrayList<>();
     volatileBooleanClose = false;
+    if (workStealing) {
+      stealingQueues = new ArrayList<>();
+      for (int i = 0; i < listOfThreadsCount; i++) {
+        stealingQueues.add(new ConcurrentLinkedDeque<>());
+      }
+    } else {
+      stealingQueues = null;
+    }
     for (int i = 0; i < listOfThreadsCount; i++) {
+      final int index = i;
       final Thread thread = new Thread(() -> {
+        if (stealingQueues != null) {
+          ownQueue.set(stealingQueues.get(index));
+        }
         try {
           while (!Thread.interrupted()) {
-            pollTask().run();
+            if (stealingQueues == null) {
+              pollTask().run();
+            } else {
+              stealTask(index).run();
+            }
           }
         } catch (final InterruptedException ignored) {
         } finally {
@@ -37,29 +96,195 @@ public class ParallelMapperImpl implements ParallelMapper {
   }
 
   private Runnable pollTask() throws InterruptedException {
+    final Runnable task;
     synchronized (queueOfTasks) {
       while (queueOfTasks.size() == 0) {
         queueOfTasks.wait();
       }
-      return queueOfTasks.poll();
+      task = queueOfTasks.poll();
     }
+    // outside of the queue lock, since draining pending submissions takes it after the pending lock
+    releasePermit();
+    return task;
   }
 
-  private void addTask(final Runnable task) {
-    synchronized (queueOfTasks) {
-      queueOfTasks.add(task);
-      queueOfTasks.notify();
+  private void acquirePermit() throws InterruptedException {
+    if (permits != null) {
+      permits.acquire();
+    }
+  }
+
+  private void releasePermit() {
+    if (permits != null) {
+      permits.release();
+      if (!pending.isEmpty()) {
+        drainPending();
+      }
+    }
+  }
+
+  private static class PendingSubmission {
+    private final List<? extends Runnable> tasks;
+    private final int start;
+    private int next;
+
+    PendingSubmission(final List<? extends Runnable> tasks, final int start) {
+      this.tasks = tasks;
+      this.start = start;
+    }
+  }
+
+  /**
+   * Moves tasks of pending submissions to the queue while there are free slots, never blocks.
+   * A slot released after a failed attempt is seen by its releaser, which drains again.
+   */
+  private void drainPending() {
+    synchronized (pending) {
+      for (PendingSubmission submission; !volatileBooleanClose && (submission = pending.peek()) != null; ) {
+        try {
+          // unlike tryAcquire(), honors the fairness of the semaphore
+          if (permits != null && !permits.tryAcquire(0, TimeUnit.SECONDS)) {
+            return;
+          }
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        enqueue(submission.tasks.get(submission.next), submission.start + submission.next);
+        if (++submission.next == submission.tasks.size()) {
+          pending.poll();
+        }
+      }
+    }
+  }
+
+  // the caller already holds a permit for the task
+  private void enqueue(final Runnable task, final int queue) {
+    if (stealingQueues == null) {
+      synchronized (queueOfTasks) {
+        queueOfTasks.add(task);
+        queueOfTasks.notify();
+      }
+    } else {
+      stealingQueues.get(queue % stealingQueues.size()).addLast((Chunk<?, ?>) task);
+      signalSubmitted();
+    }
+  }
+
+  // spreads consecutive submissions over the worker deques
+  private int reserveQueues(final int count) {
+    if (stealingQueues == null) {
+      return 0;
+    }
+    synchronized (submitted) {
+      final int start = nextQueue;
+      nextQueue = (nextQueue + count) % stealingQueues.size();
+      return start;
+    }
+  }
+
+  private Runnable stealTask(final int index) throws InterruptedException {
+    final Deque<Chunk<?, ?>> own = stealingQueues.get(index);
+    while (true) {
+      final long seen = submitted.get();
+      Chunk<?, ?> task = own.pollLast();
+      for (int i = 1; task == null && i < stealingQueues.size(); i++) {
+        task = stealingQueues.get((index + i) % stealingQueues.size()).pollFirst();
+      }
+      if (task != null) {
+        if (task.permit) {
+          releasePermit();
+        }
+        return task;
+      }
+      idleWorkers.incrementAndGet();
+      try {
+        synchronized (submitted) {
+          while (submitted.get() == seen) {
+            submitted.wait();
+          }
+        }
+      } finally {
+        idleWorkers.decrementAndGet();
+      }
+    }
+  }
+
+  // an idle worker counts itself before checking submitted, so it either sees the new task or gets notified
+  private void signalSubmitted() {
+    submitted.incrementAndGet();
+    if (idleWorkers.get() > 0) {
+      synchronized (submitted) {
+        submitted.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Range of {@code args} processed by one worker. Before every element the worker checks its own deque:
+   * if thieves have emptied it, the upper half of the rest is pushed there for them to take.
+   */
+  private class Chunk<T, R> implements Runnable {
+    private final Function<? super T, ? extends R> f;
+    private final List<? extends T> args;
+    private final ResultCollector<R> collector;
+    private final int begin;
+    private int end;
+    // chunks made by map hold a queue slot, chunks split off while running do not
+    private final boolean permit;
+
+    Chunk(final Function<? super T, ? extends R> f, final List<? extends T> args, final ResultCollector<R> collector,
+          final int begin, final int end, final boolean permit) {
+      this.f = f;
+      this.args = args;
+      this.collector = collector;
+      this.begin = begin;
+      this.end = end;
+      this.permit = permit;
+    }
+
+    @Override
+    public void run() {
+      final Deque<Chunk<?, ?>> own = ownQueue.get();
+      for (int pos = begin; pos < end; pos++) {
+        if (end - pos > 1 && own.isEmpty()) {
+          final int middle = pos + (end - pos) / 2;
+          own.addLast(new Chunk<>(f, args, collector, middle, end, false));
+          end = middle;
+          signalSubmitted();
+        }
+        try {
+          collector.store(pos, f.apply(args.get(pos)));
+        } catch (final RuntimeException e) {
+          collector.addException(e);
+        }
+      }
+      collector.countDown(end - begin);
     }
   }
 
   private class ResultCollector<R> {
-    private final List<R> res;
-    private int done;
+    private final Object[] res;
+    private final AtomicInteger remaining;
+    private final Consumer<? super R> listener;
+    private final CompletableFuture<List<R>> future;
+    private volatile Thread waiter;
     private RuntimeException exception;
-    private boolean needFinish;
+    private volatile boolean needFinish;
 
     ResultCollector(final int size) {
-      res = new ArrayList<>(Collections.nCopies(size, null));
+      this(size, null, null);
+    }
+
+    /**
+     * @param listener gets every result as soon as it is computed, may be {@code null}
+     * @param future   completed instead of unparking a waiter, may be {@code null}
+     */
+    ResultCollector(final int size, final Consumer<? super R> listener, final CompletableFuture<List<R>> future) {
+      res = new Object[size];
+      remaining = new AtomicInteger(size);
+      this.listener = listener;
+      this.future = future;
       synchronized (ParallelMapperImpl.this) {
         if (!volatileBooleanClose)
           setOfCollectors.add(ResultCollector.this);
@@ -78,57 +303,178 @@ public class ParallelMapperImpl implements ParallelMapper {
       }
     }
 
-    synchronized void shutdown() {
+    void shutdown() {
       needFinish = true;
-      notify();
+      finish();
     }
 
-    synchronized void set(final int pos, final R data) {
-      if (needFinish) {
-        return;
+    // does not complete the element, the caller has to countDown afterwards
+    void store(final int pos, final R data) {
+      res[pos] = data;
+      if (listener != null) {
+        listener.accept(data);
       }
+    }
 
-      res.set(pos, data);
-      if (++done == res.size()) {
-        notify();
+    void countDown(final int count) {
+      if (remaining.addAndGet(-count) == 0) {
+        finish();
       }
     }
 
-    synchronized List<R> get() throws InterruptedException {
-      while (done < res.size() && !needFinish) {
-        wait();
+    private void finish() {
+      if (future == null) {
+        LockSupport.unpark(waiter);
+        return;
+      }
+      unregister();
+      try {
+        future.complete(result());
+      } catch (final RuntimeException e) {
+        future.completeExceptionally(e);
       }
+    }
+
+    void set(final int pos, final R data) {
+      if (needFinish) {
+        return;
+      }
+
+      store(pos, data);
+      countDown(1);
+    }
+
+    void unregister() {
       synchronized (ParallelMapperImpl.this) {
         setOfCollectors.remove(ResultCollector.this);
       }
+    }
+
+    List<R> get() throws InterruptedException {
+      waiter = Thread.currentThread();
+      while (remaining.get() > 0 && !needFinish) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+      unregister();
+      return result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized List<R> result() {
       if (exception != null) {
         throw exception;
       }
-      return res;
+      // callers may change the result, as with the ArrayList map used to return
+      return new ArrayList<>((List<R>) Arrays.asList(res));
     }
   }
 
   @Override
   public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> args) throws InterruptedException {
+    checkClosed();
+    final ResultCollector<R> collector = new ResultCollector<>(args.size());
+    submit(f, args, collector);
+    return collector.get();
+  }
+
+  /**
+   * Non-blocking version of {@link #map}, the future fails with the same exception {@link #map} would throw.
+   * In bounded mode the call does not wait for free queue slots either: tasks that do not fit wait
+   * in submission order and are queued by the threads that free the slots.
+   */
+  public <T, R> CompletableFuture<List<R>> mapAsync(final Function<? super T, ? extends R> f, final List<? extends T> args) {
+    checkClosed();
+    final CompletableFuture<List<R>> future = new CompletableFuture<>();
+    submitAsync(f, args, new ResultCollector<>(args.size(), null, future));
+    return future;
+  }
+
+  /**
+   * Passes every result to the consumer in completion order, the consumer is called from worker threads.
+   * The future completes when all elements are done.
+   */
+  public <T, R> CompletableFuture<Void> mapUnordered(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                                     final Consumer<? super R> consumer) {
+    checkClosed();
+    final CompletableFuture<List<R>> future = new CompletableFuture<>();
+    submitAsync(f, args, new ResultCollector<R>(args.size(), consumer, future));
+    return future.thenApply(ignored -> null);
+  }
+
+  private void checkClosed() {
     if (volatileBooleanClose) {
       throw new RuntimeException("Mapper close");
     }
-    final ResultCollector<R> collector = new ResultCollector<>(args.size());
+  }
+
+  private <T, R> void submitAsync(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                  final ResultCollector<R> collector) {
+    final List<? extends Runnable> tasks = createTasks(f, args, collector);
+    if (args.isEmpty()) {
+      collector.countDown(0);
+      return;
+    }
+    pending.add(new PendingSubmission(tasks, reserveQueues(tasks.size())));
+    drainPending();
+  }
+
+  private <T, R> void submit(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                             final ResultCollector<R> collector) throws InterruptedException {
+    final List<? extends Runnable> tasks = createTasks(f, args, collector);
+    final int start = reserveQueues(tasks.size());
+    try {
+      for (int i = 0; i < tasks.size() && !volatileBooleanClose; i++) {
+        acquirePermit();
+        enqueue(tasks.get(i), start + i);
+      }
+    } catch (final InterruptedException e) {
+      collector.needFinish = true;
+      collector.unregister();
+      throw e;
+    }
+  }
+
+  private <T, R> List<? extends Runnable> createTasks(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                                      final ResultCollector<R> collector) {
+    if (stealingQueues != null) {
+      return createChunks(f, args, collector);
+    }
+    final List<Runnable> tasks = new ArrayList<>(args.size());
     for (int i = 0; i < args.size(); i++) {
       final int pos = i;
-      addTask(() -> {
+      tasks.add(() -> {
         try {
           collector.set(pos, f.apply(args.get(pos)));
         } catch (final RuntimeException e) {
           collector.addException(e);
+          collector.countDown(1);
         }
       });
     }
-    return collector.get();
+    return tasks;
+  }
+
+  // one chunk per worker, the rest of the balancing is done by splitting while running
+  private <T, R> List<Chunk<?, ?>> createChunks(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                                final ResultCollector<R> collector) {
+    final int count = Math.min(args.size(), stealingQueues.size());
+    final List<Chunk<?, ?>> chunks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      chunks.add(new Chunk<>(f, args, collector, (int) ((long) args.size() * i / count),
+          (int) ((long) args.size() * (i + 1) / count), true));
+    }
+    return chunks;
   }
 
   @Override
   synchronized public void close() {
+    if (volatileBooleanClose) {
+      // permits were already released, releasing them again would overflow the semaphore
+      return;
+    }
     volatileBooleanClose = true;
     listOfThreads.forEach(Thread::interrupt);
     for (int i = 0; i < listOfThreads.size(); i++) {
@@ -139,7 +485,13 @@ public class ParallelMapperImpl implements ParallelMapper {
       }
     }
     synchronized (this) {
-      setOfCollectors.forEach(ResultCollector::shutdown);
+      // asynchronous collectors unregister themselves on shutdown
+      new ArrayList<>(setOfCollectors).forEach(ResultCollector::shutdown);
+    }
+    pending.clear();
+    if (permits != null) {
+      // nobody takes tasks anymore, let blocked submitters through
+      permits.release(Integer.MAX_VALUE / 2);
     }
   }
 }
\ No newline at end of file
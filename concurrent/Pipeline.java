@@ -0,0 +1,50 @@
+package info.kgeorgiy.ja.mozzhevilov.concurrent;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Fused chain of map and filter steps applied to every element in a single call,
+ * without intermediate collections. Filtered out elements are reported as {@link #SKIP}.
+ */
+public final class Pipeline<T, U> {
+  static final Object SKIP = new Object();
+
+  private final Function<? super T, Object> stage;
+
+  private Pipeline(Function<? super T, Object> stage) {
+    this.stage = stage;
+  }
+
+  public static <T> Pipeline<T, T> identity() {
+    return new Pipeline<>(value -> value);
+  }
+
+  public <V> Pipeline<T, V> map(Function<? super U, ? extends V> f) {
+    return new Pipeline<>(value -> {
+      final Object res = stage.apply(value);
+      if (res == SKIP) {
+        return SKIP;
+      }
+      @SuppressWarnings("unchecked")
+      final U u = (U) res;
+      return f.apply(u);
+    });
+  }
+
+  public Pipeline<T, U> filter(Predicate<? super U> predicate) {
+    return new Pipeline<>(value -> {
+      final Object res = stage.apply(value);
+      if (res == SKIP) {
+        return SKIP;
+      }
+      @SuppressWarnings("unchecked")
+      final U u = (U) res;
+      return predicate.test(u) ? res : SKIP;
+    });
+  }
+
+  Object apply(T value) {
+    return stage.apply(value);
+  }
+}
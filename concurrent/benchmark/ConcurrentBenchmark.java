@@ -0,0 +1,156 @@
+package info.kgeorgiy.ja.mozzhevilov.concurrent.benchmark;
+
+import info.kgeorgiy.ja.mozzhevilov.concurrent.IterativeParallelism;
+import info.kgeorgiy.ja.mozzhevilov.concurrent.ParallelMapperImpl;
+import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Throughput and latency of {@link IterativeParallelism} and {@link ParallelMapperImpl}
+ * against {@code parallelStream()} and a dedicated {@link ForkJoinPool} of the same size.
+ * Baselines ignore {@code mode} and {@code mapperMap} only measures the mapper modes,
+ * so restrict them with {@code -p mode=...} to save time.
+ * Needs jmh-core and jmh-generator-annprocess on the classpath, for example:
+ * <pre>
+ *   java -cp benchmarks.jar org.openjdk.jmh.Main ConcurrentBenchmark -p size=1000000 -p threads=8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+  private static final AdvancedIP.Monoid<Integer> SUM = new AdvancedIP.Monoid<>(0, Integer::sum);
+  private static final Function<Integer, Integer> LIFT = x -> x * 31 + 7;
+  private static final Predicate<Integer> EVEN = x -> (x & 1) == 0;
+  // never true, so any has to look at every element
+  private static final Predicate<Integer> MISSING = x -> x < 0;
+
+  @Param({"1000", "100000", "10000000"})
+  public int size;
+
+  @Param({"1", "4", "8", "16"})
+  public int threads;
+
+  /**
+   * {@code threads}: new threads per call, {@code mapper}: shared {@link ParallelMapperImpl},
+   * {@code stealing}: {@link ParallelMapperImpl} in work-stealing mode.
+   */
+  @Param({"threads", "mapper", "stealing"})
+  public String mode;
+
+  private List<Integer> values;
+  private ParallelMapperImpl mapper;
+  private IterativeParallelism ip;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(3141592653L);
+    values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(random.nextInt(Integer.MAX_VALUE));
+    }
+    switch (mode) {
+      case "threads":
+        ip = new IterativeParallelism();
+        break;
+      case "mapper":
+        mapper = new ParallelMapperImpl(threads);
+        ip = new IterativeParallelism(mapper);
+        break;
+      case "stealing":
+        mapper = new ParallelMapperImpl(threads, true);
+        ip = new IterativeParallelism(mapper);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown mode " + mode);
+    }
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (mapper != null) {
+      mapper.close();
+    }
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public Integer reduce() throws InterruptedException {
+    return ip.reduce(threads, values, SUM);
+  }
+
+  @Benchmark
+  public Integer mapReduce() throws InterruptedException {
+    return ip.mapReduce(threads, values, LIFT, SUM);
+  }
+
+  @Benchmark
+  public List<Integer> filter() throws InterruptedException {
+    return ip.filter(threads, values, EVEN);
+  }
+
+  @Benchmark
+  public List<Integer> map() throws InterruptedException {
+    return ip.map(threads, values, LIFT);
+  }
+
+  @Benchmark
+  public Integer maximum() throws InterruptedException {
+    return ip.maximum(threads, values, Comparator.naturalOrder());
+  }
+
+  @Benchmark
+  public boolean any() throws InterruptedException {
+    return ip.any(threads, values, MISSING);
+  }
+
+  @Benchmark
+  public List<Integer> mapperMap() throws InterruptedException {
+    return mapper == null ? null : mapper.map(LIFT, values);
+  }
+
+  @Benchmark
+  public Integer parallelStreamMapReduce() {
+    return values.parallelStream().map(LIFT).reduce(SUM.getIdentity(), SUM.getOperator());
+  }
+
+  @Benchmark
+  public List<Integer> parallelStreamFilter() {
+    return values.parallelStream().filter(EVEN).collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public boolean parallelStreamAny() {
+    return values.parallelStream().anyMatch(MISSING);
+  }
+
+  @Benchmark
+  public Integer forkJoinMapReduce() throws ExecutionException, InterruptedException {
+    return pool.submit(() -> values.parallelStream().map(LIFT).reduce(SUM.getIdentity(), SUM.getOperator())).get();
+  }
+
+  @Benchmark
+  public List<Integer> forkJoinMap() throws ExecutionException, InterruptedException {
+    return pool.submit(() -> values.parallelStream().map(LIFT).collect(Collectors.toList())).get();
+  }
+
+  public static void main(final String[] args) throws Exception {
+    org.openjdk.jmh.Main.main(args);
+  }
+}
@@ -0,0 +1,47 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Feeds the content of a file to a consumer in as few chunks as possible. Files up to
+ * {@link RecursiveWalk#BUFFER_SIZE} are read with one call into a direct buffer of the thread,
+ * larger ones by buffer sized reads and files from {@link #MAP_THRESHOLD} are memory mapped
+ * by windows of {@link #MAP_WINDOW}.
+ */
+class ChunkedFileReader {
+  static final long MAP_THRESHOLD = 1L << 26;
+  static final long MAP_WINDOW = 1L << 26;
+
+  // every hashing thread reuses its buffer, direct ones save a copy on every read
+  private static final ThreadLocal<ByteBuffer> BUFFERS =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RecursiveWalk.BUFFER_SIZE));
+
+  private ChunkedFileReader() {
+  }
+
+  /**
+   * The consumer gets every chunk between position and limit and must not keep it.
+   */
+  static void read(final Path path, final Consumer<ByteBuffer> consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      long position = 0;
+      if (size >= MAP_THRESHOLD) {
+        for (; position < size; position += MAP_WINDOW) {
+          consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+        }
+        channel.position(position);
+      }
+      // also reads what was appended after the size was taken and files without a size, like pipes
+      final ByteBuffer buffer = BUFFERS.get();
+      while (channel.read(buffer.clear()) >= 0) {
+        consumer.accept(buffer.flip());
+      }
+    }
+  }
+}
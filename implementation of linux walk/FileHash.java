@@ -0,0 +1,22 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hash of file content written by the walkers, see {@link HashAlgorithm} for the built-in ones.
+ */
+public interface FileHash {
+  /**
+   * @return fresh state for one file
+   */
+  Hasher newHasher();
+
+  interface Hasher {
+    /**
+     * Hashes the bytes between position and limit, the position may be moved.
+     */
+    void update(ByteBuffer chunk);
+
+    long digest();
+  }
+}
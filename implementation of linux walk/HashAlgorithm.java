@@ -0,0 +1,224 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * Built-in hashes selected with {@code --hash}.
+ */
+public enum HashAlgorithm implements FileHash {
+  /**
+   * Rolling hash of the first walkers, kept as the default so old outputs stay comparable.
+   */
+  ROLLING("rolling") {
+    @Override
+    public Hasher newHasher() {
+      return new RollingHasher();
+    }
+  },
+  /**
+   * First 64 bits of SHA-256.
+   */
+  SHA_256("sha-256") {
+    @Override
+    public Hasher newHasher() {
+      final MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (final NoSuchAlgorithmException e) {
+        throw new AssertionError("SHA-256 is required on every platform", e);
+      }
+      return new Hasher() {
+        @Override
+        public void update(final ByteBuffer chunk) {
+          digest.update(chunk);
+        }
+
+        @Override
+        public long digest() {
+          return ByteBuffer.wrap(digest.digest()).getLong();
+        }
+      };
+    }
+  },
+  XXHASH64("xxhash64") {
+    @Override
+    public Hasher newHasher() {
+      return new XxHash64();
+    }
+  },
+  CRC32C("crc32c") {
+    @Override
+    public Hasher newHasher() {
+      final CRC32C crc = new CRC32C();
+      return new Hasher() {
+        @Override
+        public void update(final ByteBuffer chunk) {
+          crc.update(chunk);
+        }
+
+        @Override
+        public long digest() {
+          return crc.getValue();
+        }
+      };
+    }
+  };
+
+  private final String name;
+
+  HashAlgorithm(final String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return algorithm with the given command line name or {@code null}
+   */
+  public static HashAlgorithm forName(final String name) {
+    for (final HashAlgorithm algorithm : values()) {
+      if (algorithm.name.equalsIgnoreCase(name)) {
+        return algorithm;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Same result as shifting bytes in one by one with a branch on the top byte,
+   * but takes eight bytes per read and does every step without a branch.
+   */
+  private static class RollingHasher implements Hasher {
+    private static final long TOP = 0xff00_0000_0000_0000L;
+
+    private long state;
+
+    private static long step(final long state, final long b) {
+      final long shifted = (state << 8) | b;
+      final long high = shifted & TOP;
+      // high >> 48 is sign extended, exactly as in the original byte loop
+      return (shifted ^ (high >> 48)) & ~high;
+    }
+
+    @Override
+    public void update(final ByteBuffer chunk) {
+      long s = state;
+      int i = chunk.position();
+      final int end = chunk.limit();
+      final boolean bigEndian = chunk.order() == ByteOrder.BIG_ENDIAN;
+      for (; i + Long.BYTES <= end; i += Long.BYTES) {
+        final long word = bigEndian ? chunk.getLong(i) : Long.reverseBytes(chunk.getLong(i));
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          s = step(s, (word >>> shift) & 0xff);
+        }
+      }
+      for (; i < end; i++) {
+        s = step(s, chunk.get(i) & 0xff);
+      }
+      state = s;
+    }
+
+    @Override
+    public long digest() {
+      return state;
+    }
+  }
+
+  /**
+   * Streaming XXH64 with seed {@code 0}.
+   */
+  private static class XxHash64 implements Hasher {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long total;
+    // bytes of the unfinished stripe
+    private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private static long round(final long acc, final long input) {
+      return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long merge(final long acc, final long value) {
+      return (acc ^ round(0, value)) * P1 + P4;
+    }
+
+    private void stripe(final ByteBuffer data, final int i) {
+      v1 = round(v1, data.getLong(i));
+      v2 = round(v2, data.getLong(i + 8));
+      v3 = round(v3, data.getLong(i + 16));
+      v4 = round(v4, data.getLong(i + 24));
+    }
+
+    @Override
+    public void update(final ByteBuffer chunk) {
+      final ByteBuffer data = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      total += data.remaining();
+      if (tail.position() > 0) {
+        while (tail.hasRemaining() && data.hasRemaining()) {
+          tail.put(data.get());
+        }
+        if (tail.hasRemaining()) {
+          return;
+        }
+        stripe(tail, 0);
+        tail.clear();
+      }
+      int i = data.position();
+      for (; i + STRIPE <= data.limit(); i += STRIPE) {
+        stripe(data, i);
+      }
+      for (; i < data.limit(); i++) {
+        tail.put(data.get(i));
+      }
+    }
+
+    @Override
+    public long digest() {
+      long h;
+      if (total >= STRIPE) {
+        h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = merge(h, v1);
+        h = merge(h, v2);
+        h = merge(h, v3);
+        h = merge(h, v4);
+      } else {
+        h = P5;
+      }
+      h += total;
+      final int length = tail.position();
+      int i = 0;
+      for (; i + 8 <= length; i += 8) {
+        h = Long.rotateLeft(h ^ round(0, tail.getLong(i)), 27) * P1 + P4;
+      }
+      if (i + 4 <= length) {
+        h = Long.rotateLeft(h ^ (tail.getInt(i) & 0xffff_ffffL) * P1, 23) * P2 + P3;
+        i += 4;
+      }
+      for (; i < length; i++) {
+        h = Long.rotateLeft(h ^ (tail.get(i) & 0xff) * P5, 11) * P1;
+      }
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      h ^= h >>> 32;
+      return h;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes of files from earlier runs, valid while path, size, modification time and file key
+ * (device and inode on Unix) are the same.
+ *
+ * <p>The file is a header with the hash name followed by records
+ * {@code (int length, path bytes, long size, long mtime nanos, int file key, long hash)}.
+ * New and changed files are only appended, the latest record of a path wins. Records from earlier runs
+ * are read straight from a mapping, the memory keeps just a table of path hashes and record offsets.
+ * When most records are stale, the file is rewritten on close. A cache of another hash is started over,
+ * a file that is not a cache at all is refused.
+ */
+class HashCache implements Closeable {
+  private static final long MAGIC = 0x5741_4c4b_4341_0001L;
+  private static final int RECORD_TAIL = 3 * Long.BYTES + Integer.BYTES;
+  private static final int APPEND_BUFFER = 1 << 16;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final byte[] header;
+  private MappedByteBuffer records;
+  // end of the records written by earlier runs
+  private int loadedEnd;
+  private final DataOutputStream append;
+
+  // open addressing by path hash, 0 marks a free slot; offsets are -1 for paths written during this run
+  private long[] keys = new long[1 << 10];
+  private int[] offsets = new int[1 << 10];
+  private int count;
+  private int stale;
+
+  HashCache(final Path file, final FileHash hash) throws IOException {
+    this.file = file;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(MAGIC);
+      out.writeUTF(hash.toString());
+    }
+    header = bytes.toByteArray();
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      load();
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+    append = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel.position(loadedEnd)), APPEND_BUFFER));
+  }
+
+  private void load() throws IOException {
+    final long size = channel.size();
+    if (size == 0) {
+      start();
+      return;
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Hash cache " + file + " is too large");
+    }
+    records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    // anything else passed as the cache, e.g. the input or the output file, is left intact
+    if (size < Long.BYTES || records.getLong(0) != MAGIC) {
+      records = null;
+      throw new IOException(file + " is not a hash cache");
+    }
+    if (size >= header.length) {
+      final byte[] found = new byte[header.length];
+      records.get(0, found);
+      if (Arrays.equals(found, header)) {
+        int pos = header.length;
+        while (pos + Integer.BYTES <= size) {
+          final int length = records.getInt(pos);
+          if (length < 0 || pos + Integer.BYTES + (long) length + RECORD_TAIL > size) {
+            break;
+          }
+          final byte[] path = new byte[length];
+          records.get(pos + Integer.BYTES, path);
+          final int slot = slot(pathHash(new String(path, StandardCharsets.UTF_8)), true);
+          if (offsets[slot] != 0) {
+            stale++;
+          }
+          offsets[slot] = pos;
+          pos += Integer.BYTES + length + RECORD_TAIL;
+        }
+        loadedEnd = pos;
+        // cuts off a record left unfinished by a crash
+        channel.truncate(loadedEnd);
+        return;
+      }
+    }
+    // written with another hash: start over
+    records = null;
+    start();
+  }
+
+  private void start() throws IOException {
+    channel.truncate(0);
+    channel.write(ByteBuffer.wrap(header), 0);
+    loadedEnd = header.length;
+  }
+
+  private static long pathHash(final String path) {
+    long h = 0xcbf2_9ce4_8422_2325L;
+    for (int i = 0; i < path.length(); i++) {
+      h = (h ^ path.charAt(i)) * 0x100_0000_01b3L;
+    }
+    return h == 0 ? 1 : h;
+  }
+
+  // finds the slot of the key, taking a free one if asked to
+  private int slot(final long key, final boolean add) {
+    if (add && 2 * (count + 1) > keys.length) {
+      grow();
+    }
+    int i = (int) (key ^ (key >>> 32)) & (keys.length - 1);
+    while (keys[i] != 0 && keys[i] != key) {
+      i = (i + 1) & (keys.length - 1);
+    }
+    if (keys[i] == 0) {
+      if (!add) {
+        return -1;
+      }
+      keys[i] = key;
+      count++;
+    }
+    return i;
+  }
+
+  private void grow() {
+    final long[] oldKeys = keys;
+    final int[] oldOffsets = offsets;
+    keys = new long[oldKeys.length * 2];
+    offsets = new int[oldKeys.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int j = (int) (oldKeys[i] ^ (oldKeys[i] >>> 32)) & (keys.length - 1);
+        while (keys[j] != 0) {
+          j = (j + 1) & (keys.length - 1);
+        }
+        keys[j] = oldKeys[i];
+        offsets[j] = oldOffsets[i];
+      }
+    }
+  }
+
+  private static long mtime(final BasicFileAttributes attrs) {
+    return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+
+  private static int fileKey(final BasicFileAttributes attrs) {
+    return Objects.hashCode(attrs.fileKey());
+  }
+
+  /**
+   * @return hash from an earlier run if the file is unchanged, {@code 0} otherwise
+   */
+  synchronized long get(final String path, final BasicFileAttributes attrs) {
+    final int slot = slot(pathHash(path), false);
+    if (slot < 0 || offsets[slot] <= 0) {
+      return 0;
+    }
+    int pos = offsets[slot];
+    final byte[] expected = path.getBytes(StandardCharsets.UTF_8);
+    if (records.getInt(pos) != expected.length) {
+      return 0;
+    }
+    pos += Integer.BYTES;
+    for (int i = 0; i < expected.length; i++) {
+      if (records.get(pos + i) != expected[i]) {
+        return 0;
+      }
+    }
+    pos += expected.length;
+    if (records.getLong(pos) != attrs.size() || records.getLong(pos + 8) != mtime(attrs)
+        || records.getInt(pos + 16) != fileKey(attrs)) {
+      return 0;
+    }
+    return records.getLong(pos + 20);
+  }
+
+  /**
+   * Remembers the hash of a file. Zeros are not kept, since they also stand for read errors.
+   */
+  synchronized void put(final String path, final BasicFileAttributes attrs, final long hash) throws IOException {
+    if (hash == 0) {
+      return;
+    }
+    final int slot = slot(pathHash(path), true);
+    if (offsets[slot] > 0) {
+      stale++;
+    }
+    offsets[slot] = -1;
+    final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+    append.writeInt(bytes.length);
+    append.write(bytes);
+    append.writeLong(attrs.size());
+    append.writeLong(mtime(attrs));
+    append.writeInt(fileKey(attrs));
+    append.writeLong(hash);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      append.flush();
+      if (records != null && stale > count) {
+        compact();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  // keeps the latest records of earlier runs and everything appended during this one
+  private void compact() throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      out.write(ByteBuffer.wrap(header));
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0 && offsets[i] > 0) {
+          final int length = Integer.BYTES + records.getInt(offsets[i]) + RECORD_TAIL;
+          out.write(records.slice(offsets[i], length));
+        }
+      }
+      final long end = channel.size();
+      for (long pos = loadedEnd; pos < end; ) {
+        pos += channel.transferTo(pos, end - pos, out);
+      }
+    }
+    channel.close();
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
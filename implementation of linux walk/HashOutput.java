@@ -0,0 +1,15 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of walk results, see {@link OutputFormat} for the formats.
+ * Used from one thread.
+ */
+public interface HashOutput extends Closeable {
+  void write(long hash, String path) throws IOException;
+
+  @Override
+  void close() throws IOException;
+}
@@ -0,0 +1,127 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes hashes in the order files were visited. With a pool files are hashed by its workers and
+ * finished hashes wait in a reorder buffer until every earlier one is written, so the output
+ * is the same as the sequential one.
+ */
+class OrderedHashWriter implements Closeable {
+  private final HashOutput output;
+  private final ToLongFunction<Path> hasher;
+  private final ExecutorService pool;
+  private final int window;
+  private final Queue<Entry> pending = new ArrayDeque<>();
+
+  private static class Entry {
+    private final String path;
+    private final Future<Long> hash;
+
+    Entry(final String path, final Future<Long> hash) {
+      this.path = path;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * @param pool   workers hashing files, {@code null} to hash on the calling thread
+   * @param window most files hashed or waiting to be written at once
+   */
+  OrderedHashWriter(final HashOutput output, final ToLongFunction<Path> hasher, final ExecutorService pool, final int window) {
+    this.output = output;
+    this.hasher = hasher;
+    this.pool = pool;
+    this.window = window;
+  }
+
+  OrderedHashWriter(final BufferedWriter output) {
+    this(new OutputFormat.Text(output), RecursiveWalk::getHashFromThePath, null, 0);
+  }
+
+  private void write(final long hash, final String path) throws RecursiveWalk.RecursiveWalkException {
+    try {
+      output.write(hash, path);
+    } catch (final IOException e) {
+      throw new RecursiveWalk.RecursiveWalkException("Couldn't print answer", e);
+    }
+  }
+
+  void hash(final Path path) throws RecursiveWalk.RecursiveWalkException {
+    hash(path, hash -> {});
+  }
+
+  /**
+   * @param onHashed gets the hash on the hashing thread before it is written
+   */
+  void hash(final Path path, final LongConsumer onHashed) throws RecursiveWalk.RecursiveWalkException {
+    final Callable<Long> task = () -> {
+      final long hash = hasher.applyAsLong(path);
+      onHashed.accept(hash);
+      return hash;
+    };
+    if (pool == null) {
+      long hash;
+      try {
+        hash = task.call();
+      } catch (final Exception e) {
+        System.err.println("Error while hashing " + path + ". " + e);
+        hash = 0;
+      }
+      write(hash, path.toString());
+    } else {
+      add(new Entry(path.toString(), pool.submit(task)));
+    }
+  }
+
+  void print(final long hash, final String path) throws RecursiveWalk.RecursiveWalkException {
+    if (pending.isEmpty()) {
+      write(hash, path);
+    } else {
+      add(new Entry(path, CompletableFuture.completedFuture(hash)));
+    }
+  }
+
+  private void add(final Entry entry) throws RecursiveWalk.RecursiveWalkException {
+    pending.add(entry);
+    while (!pending.isEmpty() && (pending.peek().hash.isDone() || pending.size() > window)) {
+      write(pending.poll());
+    }
+  }
+
+  private void write(final Entry entry) throws RecursiveWalk.RecursiveWalkException {
+    long hash;
+    try {
+      hash = entry.hash.get();
+    } catch (final ExecutionException e) {
+      System.err.println("Error while hashing " + entry.path + ". " + e.getCause());
+      hash = 0;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RecursiveWalk.RecursiveWalkException("Interrupted while hashing", e);
+    }
+    write(hash, entry.path);
+  }
+
+  /**
+   * Waits for every submitted file and writes the rest of the hashes.
+   */
+  @Override
+  public void close() throws RecursiveWalk.RecursiveWalkException {
+    while (!pending.isEmpty()) {
+      write(pending.poll());
+    }
+  }
+}
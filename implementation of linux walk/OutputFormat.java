@@ -0,0 +1,180 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output formats selected with {@code --format}. Hashes are hex-encoded into a reused buffer
+ * and everything goes to the file channel through {@link #BUFFER_SIZE} buffers.
+ */
+public enum OutputFormat {
+  /**
+   * {@code "%016x %s%n"} lines, the format of the first walkers.
+   */
+  TEXT("text") {
+    @Override
+    public HashOutput open(final Path path) throws IOException {
+      return new Text(new OutputStreamWriter(newStream(path), StandardCharsets.UTF_8));
+    }
+  },
+  /**
+   * One {@code {"hash":"...","path":"..."}} object per line.
+   */
+  NDJSON("ndjson") {
+    @Override
+    public HashOutput open(final Path path) throws IOException {
+      return new NdJson(new OutputStreamWriter(newStream(path), StandardCharsets.UTF_8));
+    }
+  },
+  /**
+   * Records {@code (long hash, int length, path in UTF-8)}, big-endian.
+   */
+  BINARY("binary") {
+    @Override
+    public HashOutput open(final Path path) throws IOException {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(newStream(path), BUFFER_SIZE));
+      return new HashOutput() {
+        @Override
+        public void write(final long hash, final String path) throws IOException {
+          final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+          out.writeLong(hash);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+          out.close();
+        }
+      };
+    }
+  };
+
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int HASH_CHARS = 16;
+
+  private final String name;
+
+  OutputFormat(final String name) {
+    this.name = name;
+  }
+
+  public abstract HashOutput open(Path path) throws IOException;
+
+  /**
+   * @return format with the given command line name or {@code null}
+   */
+  public static OutputFormat forName(final String name) {
+    for (final OutputFormat format : values()) {
+      if (format.name.equalsIgnoreCase(name)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private static OutputStream newStream(final Path path) throws IOException {
+    return Channels.newOutputStream(FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+  }
+
+  /**
+   * Writes 16 lower-case hex digits of the hash starting from {@code offset}.
+   */
+  static void putHex(final char[] chars, final int offset, final long hash) {
+    long rest = hash;
+    for (int i = offset + HASH_CHARS - 1; i >= offset; i--) {
+      chars[i] = HEX[(int) (rest & 0xf)];
+      rest >>>= 4;
+    }
+  }
+
+  /**
+   * Text lines written to any writer, also serves {@link RecursiveWalk#printHash}.
+   */
+  static class Text implements HashOutput {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer out;
+    private final char[] hash = new char[HASH_CHARS + 1];
+
+    Text(final Writer out) {
+      this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, BUFFER_SIZE);
+      hash[HASH_CHARS] = ' ';
+    }
+
+    @Override
+    public void write(final long hash, final String path) throws IOException {
+      putHex(this.hash, 0, hash);
+      out.write(this.hash);
+      out.write(path);
+      out.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static class NdJson implements HashOutput {
+    private static final char[] START = "{\"hash\":\"".toCharArray();
+    private static final char[] PATH = "\",\"path\":\"".toCharArray();
+    private static final char[] END = "\"}\n".toCharArray();
+
+    private final Writer out;
+    private final char[] hash = new char[HASH_CHARS];
+
+    NdJson(final Writer out) {
+      this.out = new BufferedWriter(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(final long hash, final String path) throws IOException {
+      putHex(this.hash, 0, hash);
+      out.write(START);
+      out.write(this.hash);
+      out.write(PATH);
+      int from = 0;
+      for (int i = 0; i < path.length(); i++) {
+        final char c = path.charAt(i);
+        if (c == '"' || c == '\\' || c < 0x20) {
+          out.write(path, from, i - from);
+          out.write('\\');
+          if (c < 0x20) {
+            out.write("u00");
+            out.write(HEX[c >> 4]);
+            out.write(HEX[c & 0xf]);
+          } else {
+            out.write(c);
+          }
+          from = i + 1;
+        }
+      }
+      out.write(path, from, path.length() - from);
+      out.write(END);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
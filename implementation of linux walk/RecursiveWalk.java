@@ -3,10 +3,12 @@ package info.kgeorgiy.ja.mozzhevilov.walk;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RecursiveWalk {
 
-  protected static final int BUFFER_SIZE = 1 << 4;
+  protected static final int BUFFER_SIZE = 1 << 20;
 
   protected static class RecursiveWalkException extends IOException {
     RecursiveWalkException(final String message, Exception error) {
@@ -16,27 +18,21 @@ public class RecursiveWalk {
 
   protected static void printHash(BufferedWriter writer, long hash, String path) throws RecursiveWalkException {
     try {
-      writer.write(String.format("%016x %s%n", hash, path));
+      new OutputFormat.Text(writer).write(hash, path);
     } catch (IOException e) {
       throw new RecursiveWalkException("Couldn't print answer", e);
     }
   }
 
   protected static long getHashFromThePath(Path path) {
-    try (InputStream inputStream = Files.newInputStream(path)) {
-      long start = 0;
-      byte[] buffer = new byte[BUFFER_SIZE];
-      for (int bytesreaded; (bytesreaded = inputStream.read(buffer, 0, BUFFER_SIZE)) >= 0; ) {
-        for (int i = 0; i < bytesreaded; i++) {
-          start = (start << 8) + (buffer[i] & 0xff);
-          final long high = start & 0xff00_0000_0000_0000L;
-          if (high != 0) {
-            start ^= high >> 48;
-            start &= ~high;
-          }
-        }
-      }
-      return start;
+    return getHashFromThePath(path, HashAlgorithm.ROLLING);
+  }
+
+  protected static long getHashFromThePath(Path path, FileHash hash) {
+    try {
+      final FileHash.Hasher hasher = hash.newHasher();
+      ChunkedFileReader.read(path, hasher::update);
+      return hasher.digest();
     } catch (InvalidPathException e) {
       System.err.println("Invalid path to" + path.toString() + ". " + e.getMessage());
       return 0L;
@@ -48,21 +44,46 @@ public class RecursiveWalk {
 
 
   public static class OverrideVisitor extends SimpleFileVisitor<Path> {
-    private final BufferedWriter output;
+    private final OrderedHashWriter output;
+    private final HashCache cache;
 
     OverrideVisitor(BufferedWriter writer) {
+      this(new OrderedHashWriter(writer), null);
+    }
+
+    /**
+     * @param cache hashes of unchanged files, may be {@code null}
+     */
+    OverrideVisitor(OrderedHashWriter writer, HashCache cache) {
       output = writer;
+      this.cache = cache;
     }
 
     @Override
     public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-      printHash(output, getHashFromThePath(path), path.toString());
+      if (cache == null) {
+        output.hash(path);
+        return FileVisitResult.CONTINUE;
+      }
+      final String key = path.toAbsolutePath().toString();
+      final long cached = cache.get(key, attrs);
+      if (cached != 0) {
+        output.print(cached, path.toString());
+      } else {
+        output.hash(path, hash -> {
+          try {
+            cache.put(key, attrs, hash);
+          } catch (IOException e) {
+            System.err.println("Error while writing hash cache. " + e.getMessage());
+          }
+        });
+      }
       return FileVisitResult.CONTINUE;
     }
 
     @Override
     public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
-      printHash(output, 0, path.toString());
+      output.print(0, path.toString());
       return FileVisitResult.CONTINUE;
     }
   }
@@ -77,8 +98,15 @@ public class RecursiveWalk {
   }
 
   protected static void SolveTasksByWalking(final String inputFileName, final String outputFileName, final boolean isWalk) throws RecursiveWalkException {
-    final Path input = getPath(inputFileName);
-    final Path output = getPath(outputFileName);
+    final WalkOptions options = new WalkOptions();
+    options.input = inputFileName;
+    options.output = outputFileName;
+    SolveTasksByWalking(options, isWalk);
+  }
+
+  protected static void SolveTasksByWalking(final WalkOptions options, final boolean isWalk) throws RecursiveWalkException {
+    final Path input = getPath(options.input);
+    final Path output = getPath(options.output);
     try {
       final Path parent = output.getParent();
       if (parent != null) {
@@ -88,22 +116,27 @@ public class RecursiveWalk {
       System.err.println("Error with creating output file");
     }
 
+    // traversal stays on this thread and feeds the pool, the writer restores the visit order
+    final ExecutorService pool = options.threads > 1 ? Executors.newFixedThreadPool(options.threads) : null;
+    final HashCache cache = openCache(options);
     try (BufferedReader in = Files.newBufferedReader(input)) {
-      try (BufferedWriter out = Files.newBufferedWriter(output)) {
+      try (HashOutput out = options.format.open(output);
+           OrderedHashWriter writer = new OrderedHashWriter(out, path -> getHashFromThePath(path, options.hash), pool, options.window())) {
+        final OverrideVisitor visitor = new OverrideVisitor(writer, cache);
         String path;
         while ((path = in.readLine()) != null) {
           try {
             final File temp = new File(path);
             if (isWalk && temp.isDirectory()) {
-              printHash(out, 0, path);
+              writer.print(0, path);
             } else {
-              Files.walkFileTree(Paths.get(path), new OverrideVisitor(out));
+              Files.walkFileTree(Paths.get(path), visitor);
             }
           } catch (InvalidPathException e) {
-            printHash(out, 0, path);
+            writer.print(0, path);
             System.err.println("Invalid path " + path + e.getMessage());
           } catch (IOException e) {
-            printHash(out, 0, path);
+            writer.print(0, path);
             System.err.println("Reading error" + path + e.getMessage());
           }
         }
@@ -112,16 +145,44 @@ public class RecursiveWalk {
       }
     } catch (IOException e) {
       throw new RecursiveWalkException("Error occurred during work with output file", e);
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      closeCache(cache);
+    }
+  }
+
+  private static HashCache openCache(final WalkOptions options) {
+    if (options.cache == null) {
+      return null;
+    }
+    try {
+      return new HashCache(getPath(options.cache), options.hash);
+    } catch (IOException e) {
+      System.err.println("Error while opening hash cache, hashing everything. " + e.getMessage());
+      return null;
+    }
+  }
+
+  private static void closeCache(final HashCache cache) {
+    if (cache == null) {
+      return;
+    }
+    try {
+      cache.close();
+    } catch (IOException e) {
+      System.err.println("Error while saving hash cache. " + e.getMessage());
     }
   }
 
   public static void main(String[] args) {
-    if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
-      System.err.println("Type only name of two files");
+    final WalkOptions options = WalkOptions.parse(args);
+    if (options == null) {
       return;
     }
     try {
-      SolveTasksByWalking(args[0], args[1], false);
+      SolveTasksByWalking(options, false);
     } catch (RecursiveWalkException e) {
       System.err.println(e.getMessage());
     }
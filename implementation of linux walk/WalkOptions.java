@@ -0,0 +1,88 @@
+package info.kgeorgiy.ja.mozzhevilov.walk;
+
+/**
+ * Command line of the walkers: options go before the input and output file names.
+ */
+public class WalkOptions {
+  static final String USAGE = "Usage: [--threads count] [--hash rolling|sha-256|xxhash64|crc32c] [--cache file] [--format text|ndjson|binary] input output";
+
+  // files hashed at once per hashing thread, bounds the reorder buffer
+  private static final int FILES_PER_THREAD = 64;
+
+  int threads = 1;
+  FileHash hash = HashAlgorithm.ROLLING;
+  // hashes of unchanged files from earlier runs, none if null
+  String cache;
+  OutputFormat format = OutputFormat.TEXT;
+  String input;
+  String output;
+
+  int window() {
+    return threads * FILES_PER_THREAD;
+  }
+
+  /**
+   * @return parsed options, {@code null} after printing the usage if arguments are wrong
+   */
+  static WalkOptions parse(final String[] args) {
+    if (args == null) {
+      System.err.println(USAGE);
+      return null;
+    }
+    for (final String arg : args) {
+      if (arg == null) {
+        System.err.println(USAGE);
+        return null;
+      }
+    }
+    final WalkOptions options = new WalkOptions();
+    int pos = 0;
+    try {
+      for (; pos + 2 < args.length && args[pos].startsWith("--"); pos += 2) {
+        switch (args[pos]) {
+          case "--threads":
+            options.threads = Integer.parseInt(args[pos + 1]);
+            if (options.threads <= 0) {
+              throw new NumberFormatException("count of threads must be > 0");
+            }
+            break;
+          case "--hash":
+            final HashAlgorithm hash = HashAlgorithm.forName(args[pos + 1]);
+            if (hash == null) {
+              System.err.println("Unknown hash " + args[pos + 1]);
+              System.err.println(USAGE);
+              return null;
+            }
+            options.hash = hash;
+            break;
+          case "--format":
+            final OutputFormat format = OutputFormat.forName(args[pos + 1]);
+            if (format == null) {
+              System.err.println("Unknown format " + args[pos + 1]);
+              System.err.println(USAGE);
+              return null;
+            }
+            options.format = format;
+            break;
+          case "--cache":
+            options.cache = args[pos + 1];
+            break;
+          default:
+            System.err.println("Unknown option " + args[pos]);
+            System.err.println(USAGE);
+            return null;
+        }
+      }
+    } catch (final NumberFormatException e) {
+      System.err.println("Bad number in " + args[pos] + ": " + e.getMessage());
+      return null;
+    }
+    if (args.length - pos != 2) {
+      System.err.println(USAGE);
+      return null;
+    }
+    options.input = args[pos];
+    options.output = args[pos + 1];
+    return options;
+  }
+}